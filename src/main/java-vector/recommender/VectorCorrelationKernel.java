@@ -0,0 +1,83 @@
+package recommender;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A CorrelationKernel that accumulates the Pearson sums with the Java Vector API,
+ *  one full SIMD register of ratings per step, and finishes the tail with scalar code.
+ *  Compiled only with the "simd" maven profile; loaded by CorrelationKernels.
+ */
+final class VectorCorrelationKernel implements CorrelationKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public double pearson(double[] x, double[] y, int n) {
+        DoubleVector sx = DoubleVector.zero(SPECIES);
+        DoubleVector sy = sx, sx2 = sx, sy2 = sx, sxy = sx;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, i);
+            sx = sx.add(a);
+            sy = sy.add(b);
+            sx2 = a.fma(a, sx2);
+            sy2 = b.fma(b, sy2);
+            sxy = a.fma(b, sxy);
+        }
+        double sumx = sx.reduceLanes(VectorOperators.ADD);
+        double sumy = sy.reduceLanes(VectorOperators.ADD);
+        double sumx2 = sx2.reduceLanes(VectorOperators.ADD);
+        double sumy2 = sy2.reduceLanes(VectorOperators.ADD);
+        double sumxy = sxy.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            double a = x[i];
+            double b = y[i];
+            sumx += a;
+            sumy += b;
+            sumx2 += a * a;
+            sumy2 += b * b;
+            sumxy += a * b;
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+
+    public double pearsonDense(double[] a, int aOff, double[] b, int bOff, int len) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sx = zero, sy = zero, sx2 = zero, sy2 = zero, sxy = zero;
+        int n = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOff + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOff + i);
+            // keep only the lanes where both users rated the movie
+            VectorMask<Double> both = x.compare(VectorOperators.NE, 0).and(y.compare(VectorOperators.NE, 0));
+            x = zero.blend(x, both);
+            y = zero.blend(y, both);
+            n += both.trueCount();
+            sx = sx.add(x);
+            sy = sy.add(y);
+            sx2 = x.fma(x, sx2);
+            sy2 = y.fma(y, sy2);
+            sxy = x.fma(y, sxy);
+        }
+        double sumx = sx.reduceLanes(VectorOperators.ADD);
+        double sumy = sy.reduceLanes(VectorOperators.ADD);
+        double sumx2 = sx2.reduceLanes(VectorOperators.ADD);
+        double sumy2 = sy2.reduceLanes(VectorOperators.ADD);
+        double sumxy = sxy.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            double x = a[aOff + i];
+            double y = b[bOff + i];
+            if (x != 0 && y != 0) {
+                n++;
+                sumx += x;
+                sumy += y;
+                sumx2 += x * x;
+                sumy2 += y * y;
+                sumxy += x * y;
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+}
@@ -0,0 +1,116 @@
+package recommender;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** A sink that hands recommendations to another sink on a dedicated writer thread,
+ *  so that computing recommendations never waits for the disk.
+ *  Results are written in the order write was called. The queue is bounded:
+ *  if the writer falls behind, write blocks until there is room.
+ *  An error of the underlying sink is reported by the next write or by close; after an error the
+ *  writer thread keeps taking (and discarding) results, so that write and close never hang.
+ */
+public class AsyncSink implements RecommendationSink {
+    private static final Batch END = new Batch(0, null, null);
+
+    private final RecommendationSink delegate;
+    private final BlockingQueue<Batch> queue;
+    private final Thread writer;
+    private volatile Throwable failure;
+
+    /**
+     * Creates a sink with room for 1024 pending users
+     * @param delegate sink that does the actual writing
+     */
+    public AsyncSink(RecommendationSink delegate) {
+        this(delegate, 1024);
+    }
+
+    /**
+     * @param delegate sink that does the actual writing
+     * @param capacity number of users' results that can be pending
+     */
+    public AsyncSink(RecommendationSink delegate, int capacity) {
+        this.delegate = delegate;
+        queue = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::drain, "recommendation-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void write(int userId, int[] movieIds, MovieTitles titles) throws IOException {
+        checkFailure();
+        put(new Batch(userId, movieIds, titles));
+    }
+
+    public void close() throws IOException {
+        put(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer thread", e);
+        }
+        try {
+            checkFailure();
+        } finally {
+            delegate.close();
+        }
+    }
+
+    private void put(Batch batch) throws IOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing recommendations", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e != null)
+            throw new IOException("Writing recommendations failed", e);
+    }
+
+    /** Body of the writer thread */
+    private void drain() {
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                if (failure == null)
+                    failure = new IOException("Writer thread interrupted", e);
+                continue; // keep draining so that writers and close are not blocked
+            }
+            if (batch == END)
+                return;
+            if (failure == null) {
+                try {
+                    delegate.write(batch.userId, batch.movieIds, batch.titles);
+                } catch (Throwable e) {
+                    failure = e; // keep draining so that writers are not blocked
+                }
+            }
+        }
+    }
+
+    /** The recommendations of one user, waiting in the queue */
+    private static class Batch {
+        final int userId;
+        final int[] movieIds;
+        final MovieTitles titles;
+
+        Batch(int userId, int[] movieIds, MovieTitles titles) {
+            this.userId = userId;
+            this.movieIds = movieIds;
+            this.titles = titles;
+        }
+    }
+}
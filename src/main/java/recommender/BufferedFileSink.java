@@ -0,0 +1,78 @@
+package recommender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Writes the recommendations of many users into one file, in the given format.
+ *  Output is encoded into a large direct buffer and only written to the file channel
+ *  when the buffer is full, on flush and on close, so writing a user costs no system call.
+ *  Not thread-safe; wrap it in an AsyncSink to write from several threads.
+ */
+public class BufferedFileSink implements RecommendationSink {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final SinkFormat format;
+    private final SinkFormat.Output output = new SinkFormat.Output();
+
+    /**
+     * Creates (or truncates) the file and a sink with a 1 MB buffer
+     * @param filename name of the output file
+     * @param format output format
+     * @throws IOException if the file can not be opened
+     */
+    public BufferedFileSink(String filename, SinkFormat format) throws IOException {
+        this(filename, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates (or truncates) the file and a sink with the given buffer size
+     * @param filename name of the output file
+     * @param format output format
+     * @param bufferSize size of the buffer in bytes
+     * @throws IOException if the file can not be opened
+     */
+    public BufferedFileSink(String filename, SinkFormat format, int bufferSize) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.format = format;
+    }
+
+    public void write(int userId, int[] movieIds, MovieTitles titles) throws IOException {
+        output.reset();
+        format.append(output, userId, movieIds, titles);
+        if (output.size() > buffer.remaining())
+            flush();
+        if (output.size() > buffer.capacity()) {
+            // larger than the whole buffer: write it directly
+            ByteBuffer big = ByteBuffer.wrap(output.toByteArray());
+            while (big.hasRemaining())
+                channel.write(big);
+        } else
+            output.copyTo(buffer);
+    }
+
+    /**
+     * Writes the buffered output to the file
+     * @throws IOException if the file can not be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package recommender;
+
+/** Lets another thread stop a long-running search early; the search then returns the best
+ *  answer it has found so far. A token can be shared by several searches.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    /** Asks the searches using this token to stop */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Returns true once cancel has been called */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,245 @@
+package recommender;
+
+/** One user's ratings, sorted by movie id, compressed into a single byte array:
+ *      size bytes of ratings in half stars (rating * 2), then the movie ids as varint gaps:
+ *      each id minus the previous one (the first id as is), 7 bits per byte, low bits first,
+ *      with the high bit set on every byte but the last.
+ *  Gaps between the movies of one user are mostly small, so an id usually takes 1 or 2 bytes
+ *  instead of 4, and a rating 2 to 3 bytes in total against 32+ for a RatingNode and 12 for
+ *  SparseRatings.
+ *  Every BLOCK-th id and the position of the gap after it are kept in a skip index, so that
+ *  movieIdAt and lookups decode at most one block. Merge-joins (intersect, pearson) decode both
+ *  users' ids sequentially as they go, without expanding them into an array; callers that need
+ *  every id decode them in one pass with copyMovieIds.
+ *  Immutable, so it is safe to share between threads.
+ */
+final class CompressedRatings implements UserRatings {
+    static final int BLOCK = 32;
+
+    private final byte[] data;
+    private final int size;
+    private final int[] blockIds; // blockIds[b] is the id at index b * BLOCK
+    private final int[] blockOffsets; // blockOffsets[b] is the position in data of the gap after it
+
+    private CompressedRatings(byte[] data, int size, int[] blockIds, int[] blockOffsets) {
+        this.data = data;
+        this.size = size;
+        this.blockIds = blockIds;
+        this.blockOffsets = blockOffsets;
+    }
+
+    /**
+     * Compresses ratings
+     * @param ratings ratings sorted by movie id; must pass OffHeapRatingStore.canStore
+     * @return compressed copy
+     */
+    static CompressedRatings of(UserRatings ratings) {
+        int n = ratings.size();
+        int bytes = n;
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int id = ratings.movieIdAt(i);
+            bytes += varintSize(id - previous);
+            previous = id;
+        }
+        byte[] data = new byte[bytes];
+        int[] blockIds = new int[(n + BLOCK - 1) / BLOCK];
+        int[] blockOffsets = new int[blockIds.length];
+        int pos = n;
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            data[i] = (byte) (ratings.ratingAt(i) * 2);
+            int id = ratings.movieIdAt(i);
+            int gap = id - previous;
+            while ((gap & ~0x7f) != 0) {
+                data[pos++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            data[pos++] = (byte) gap;
+            if (i % BLOCK == 0) {
+                blockIds[i / BLOCK] = id;
+                blockOffsets[i / BLOCK] = pos;
+            }
+            previous = id;
+        }
+        return new CompressedRatings(data, n, blockIds, blockOffsets);
+    }
+
+    private static int varintSize(int value) {
+        int bytes = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /** Returns the estimated heap used by this object and its arrays */
+    long getBytesUsed() {
+        return MemoryReport.object(4 + 3 * MemoryReport.REFERENCE) + MemoryReport.array(data.length, 1)
+                + 2 * MemoryReport.array(blockIds.length, 4);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int movieIdAt(int i) {
+        Cursor c = new Cursor(this, i / BLOCK);
+        while (c.index < i)
+            c.advance();
+        return c.id;
+    }
+
+    public double ratingAt(int i) {
+        return data[i] * 0.5;
+    }
+
+    public int indexOf(int movieId) {
+        // binary search over the blocks, then decode within the block
+        int lo = 0, hi = blockIds.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockIds[mid] <= movieId)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        int block = hi;
+        if (block < 0)
+            return -1;
+        Cursor c = new Cursor(this, block);
+        while (c.id < movieId && c.advance()) {
+        }
+        if (c.id == movieId)
+            return c.index;
+        return c.id > movieId ? -(c.index + 1) : -(c.index + 2);
+    }
+
+    public int intersect(UserRatings other, double[] x, double[] y) {
+        int n = 0;
+        if (size == 0 || other.size() == 0)
+            return 0;
+        Cursor a = new Cursor(this, 0);
+        CompressedRatings compressed = other instanceof CompressedRatings ? (CompressedRatings) other : null;
+        Cursor b = compressed == null ? null : new Cursor(compressed, 0);
+        int j = 0;
+        int nb = other.size();
+        while (true) {
+            int id = b != null ? b.id : other.movieIdAt(j);
+            if (a.id < id) {
+                if (!a.advance())
+                    break;
+            } else if (a.id > id) {
+                if (b != null ? !b.advance() : ++j == nb)
+                    break;
+            } else {
+                x[n] = ratingAt(a.index);
+                y[n] = b != null ? compressed.ratingAt(b.index) : other.ratingAt(j);
+                n++;
+                if (!a.advance() || (b != null ? !b.advance() : ++j == nb))
+                    break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Pearson correlation with another user's ratings, accumulated during the merge-join
+     * without copying the co-rated ratings into arrays. Returns the same value as
+     * intersect followed by the scalar CorrelationKernel (the sums are added in the same order).
+     * @param other ratings of the other user
+     * @return correlation, NaN if it is undefined
+     */
+    double pearson(UserRatings other) {
+        int n = 0;
+        double sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        if (size > 0 && other.size() > 0) {
+            Cursor a = new Cursor(this, 0);
+            CompressedRatings compressed = other instanceof CompressedRatings ? (CompressedRatings) other : null;
+            Cursor b = compressed == null ? null : new Cursor(compressed, 0);
+            int j = 0;
+            int nb = other.size();
+            while (true) {
+                int id = b != null ? b.id : other.movieIdAt(j);
+                if (a.id < id) {
+                    if (!a.advance())
+                        break;
+                } else if (a.id > id) {
+                    if (b != null ? !b.advance() : ++j == nb)
+                        break;
+                } else {
+                    double x = ratingAt(a.index);
+                    double y = b != null ? compressed.ratingAt(b.index) : other.ratingAt(j);
+                    n++;
+                    sumx += x;
+                    sumy += y;
+                    sumx2 += x * x;
+                    sumy2 += y * y;
+                    sumxy += x * y;
+                    if (!a.advance() || (b != null ? !b.advance() : ++j == nb))
+                        break;
+                }
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+
+    public void copyMovieIds(int[] ids) {
+        // decode sequentially instead of calling movieIdAt for every position
+        if (size > 0) {
+            Cursor c = new Cursor(this, 0);
+            do {
+                ids[c.index] = c.id;
+            } while (c.advance());
+        }
+    }
+
+    public int[] rankedMovieIds() {
+        // decode the ids once instead of calling movieIdAt for every position
+        int[] ids = new int[size];
+        copyMovieIds(ids);
+        int[] positions = rankedPositions();
+        int[] ranked = new int[size];
+        for (int i = 0; i < size; i++)
+            ranked[i] = ids[positions[i]];
+        return ranked;
+    }
+
+    // ------------------------------------------------------
+    /**
+     * Sequential decoder over the ids of a CompressedRatings, positioned on a valid index.
+     */
+    private static final class Cursor {
+        private final CompressedRatings ratings;
+        int index;
+        int id;
+        private int pos; // position in data of the next gap
+
+        /** Creates a cursor on the first id of a block (of a non-empty CompressedRatings) */
+        Cursor(CompressedRatings ratings, int block) {
+            this.ratings = ratings;
+            index = block * BLOCK;
+            id = ratings.blockIds[block];
+            pos = ratings.blockOffsets[block];
+        }
+
+        /** Moves to the next id; returns false (and stays put) at the end */
+        boolean advance() {
+            if (index + 1 >= ratings.size)
+                return false;
+            byte[] data = ratings.data;
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                gap |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += gap;
+            index++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package recommender;
+
+/** Computes Pearson correlation over primitive rating arrays.
+ *  Implementations must return the same value as RatingsList.computeCorrelation
+ *  for the same set of co-rated movies.
+ *  Use CorrelationKernels.get() to obtain the fastest implementation available.
+ */
+public interface CorrelationKernel {
+
+    /**
+     * Pearson correlation of two aligned arrays of ratings:
+     * x[i] and y[i] are two users' ratings of the same movie.
+     * @param x ratings of the first user
+     * @param y ratings of the second user
+     * @param n number of co-rated movies (prefix of x and y to use)
+     * @return correlation, NaN if it is undefined
+     */
+    double pearson(double[] x, double[] y, int n);
+
+    /**
+     * Pearson correlation of two dense rating blocks, where a[aOff + i] and b[bOff + i]
+     * are two users' ratings of the i-th movie of the block and 0 means "not rated".
+     * Only movies rated by both users are used.
+     * @param a ratings of the first user
+     * @param aOff offset of the block in a
+     * @param b ratings of the second user
+     * @param bOff offset of the block in b
+     * @param len length of the block
+     * @return correlation, NaN if it is undefined
+     */
+    double pearsonDense(double[] a, int aOff, double[] b, int bOff, int len);
+
+    /**
+     * Combines the sums accumulated over n co-rated movies into the Pearson correlation coefficient,
+     * using the same formula as RatingsList.computeCorrelation.
+     * For weighted correlation, n is the sum of the weights and the other sums are weighted.
+     */
+    static double fromSums(double n, double sumx, double sumy, double sumx2, double sumy2, double sumxy) {
+        return ((n * sumxy) - (sumx * sumy)) /
+                (Math.sqrt((n * sumx2) - (sumx * sumx)) * (Math.sqrt((n * sumy2) - (sumy * sumy))));
+    }
+}
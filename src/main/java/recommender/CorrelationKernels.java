@@ -0,0 +1,37 @@
+package recommender;
+
+/** Picks the CorrelationKernel to use.
+ *  The SIMD kernel (VectorCorrelationKernel) is only compiled with the "simd" maven profile
+ *  and only works when the JVM runs with --add-modules jdk.incubator.vector;
+ *  in every other case the scalar kernel is used.
+ *  Set the system property recommender.simd=false to force the scalar kernel.
+ */
+public final class CorrelationKernels {
+    private static final CorrelationKernel SCALAR = new ScalarCorrelationKernel();
+    private static final CorrelationKernel BEST = loadBest();
+
+    private CorrelationKernels() {
+    }
+
+    /** Returns the fastest kernel available in this JVM */
+    public static CorrelationKernel get() {
+        return BEST;
+    }
+
+    /** Returns the portable scalar kernel */
+    public static CorrelationKernel scalar() {
+        return SCALAR;
+    }
+
+    private static CorrelationKernel loadBest() {
+        if (!Boolean.parseBoolean(System.getProperty("recommender.simd", "true")))
+            return SCALAR;
+        try {
+            Class<?> c = Class.forName("recommender.VectorCorrelationKernel");
+            return (CorrelationKernel) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not compiled in, or the incubator module is not enabled
+            return SCALAR;
+        }
+    }
+}
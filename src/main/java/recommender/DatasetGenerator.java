@@ -0,0 +1,249 @@
+package recommender;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Writes synthetic movies and ratings files in the format of input/movies.csv and input/ratings.csv,
+ *  at any scale, for scaling tests.
+ *  - Movie popularity follows a power law (Zipf): the movie of popularity rank r is picked
+ *    with probability proportional to 1 / r^popularityExponent. Ranks are shuffled over movie ids.
+ *  - User activity follows a power law too: the user of activity rank r gets a number of ratings
+ *    proportional to 1 / r^activityExponent (at least minRatingsPerUser, at most half the movies).
+ *  - A rating is a half star from 0.5 to 5, around a per-movie quality plus a per-user bias,
+ *    so that users are correlated like in real data.
+ *  Ratings are written by user id, then by movie id, like the real file. Each user is active during
+ *  a random period inside a fixed window of TIME_SPAN seconds from FIRST_TIME, and each of their
+ *  ratings gets a time drawn uniformly from that period, independently of the movie id, so the
+ *  times stay realistic however many ratings a user has and are not in movie id order.
+ *  The generator streams its output, so 10^8 ratings need memory only for the per-movie tables,
+ *  never for the ratings.
+ *  Usage: DatasetGenerator outputDir numUsers numMovies numRatings [popularityExponent activityExponent seed]
+ */
+public class DatasetGenerator {
+    public static final long FIRST_TIME = 828000000L; // April 1996
+    public static final long TIME_SPAN = 20 * 365 * 24 * 3600L; // 20 years
+
+    private static final String[] GENRES = {"Action", "Adventure", "Animation", "Children", "Comedy", "Crime",
+        "Documentary", "Drama", "Fantasy", "Film-Noir", "Horror", "Musical", "Mystery", "Romance", "Sci-Fi",
+        "Thriller", "War", "Western"};
+
+    private int numUsers = 1000;
+    private int numMovies = 10000;
+    private long numRatings = 100000;
+    private double popularityExponent = 1.0;
+    private double activityExponent = 0.8;
+    private int minRatingsPerUser = 20;
+    private long seed = 42;
+
+    /** Sets the number of users (user ids are 1 to numUsers) */
+    public DatasetGenerator setNumUsers(int numUsers) {
+        this.numUsers = numUsers;
+        return this;
+    }
+
+    /** Sets the number of movies (movie ids are 1 to numMovies) */
+    public DatasetGenerator setNumMovies(int numMovies) {
+        this.numMovies = numMovies;
+        return this;
+    }
+
+    /** Sets the approximate total number of ratings; the exact number is written in the header */
+    public DatasetGenerator setNumRatings(long numRatings) {
+        this.numRatings = numRatings;
+        return this;
+    }
+
+    /** Sets the power-law exponent of movie popularity (0 is uniform) */
+    public DatasetGenerator setPopularityExponent(double exponent) {
+        this.popularityExponent = exponent;
+        return this;
+    }
+
+    /** Sets the power-law exponent of user activity (0 gives every user the same number of ratings) */
+    public DatasetGenerator setActivityExponent(double exponent) {
+        this.activityExponent = exponent;
+        return this;
+    }
+
+    /** Sets the smallest number of ratings of a user */
+    public DatasetGenerator setMinRatingsPerUser(int minRatings) {
+        this.minRatingsPerUser = minRatings;
+        return this;
+    }
+
+    /** Sets the seed of the random generator; the same seed gives the same files */
+    public DatasetGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the movies file
+     * @param filename name of the file
+     * @throws IOException if the file can not be written
+     */
+    public void writeMovies(String filename) throws IOException {
+        Random random = new Random(seed);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(numMovies + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int movieId = 1; movieId <= numMovies; movieId++) {
+                line.setLength(0);
+                line.append(movieId).append(",Movie ").append(movieId).append(" (").append(1950 + random.nextInt(70)).append("),");
+                int numGenres = 1 + random.nextInt(3);
+                long used = 0;
+                for (int g = 0; g < numGenres; g++) {
+                    int genre = random.nextInt(GENRES.length);
+                    if ((used & (1L << genre)) == 0) {
+                        if (used != 0)
+                            line.append('|');
+                        line.append(GENRES[genre]);
+                        used |= 1L << genre;
+                    }
+                }
+                out.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    /**
+     * Writes the ratings file
+     * @param filename name of the file
+     * @return number of ratings written
+     * @throws IOException if the file can not be written
+     */
+    public long writeRatings(String filename) throws IOException {
+        Random random = new Random(seed);
+        int[] perUser = ratingsPerUser(random);
+        long total = 0;
+        for (int n : perUser)
+            total += n;
+
+        double[] popularity = zipfCdf(numMovies, popularityExponent);
+        int[] movieOfRank = shuffledIds(numMovies, random);
+        double[] quality = new double[numMovies + 1];
+        for (int movieId = 1; movieId <= numMovies; movieId++)
+            quality[movieId] = 3.5 + random.nextGaussian() * 0.6;
+
+        long[] rated = new long[(numMovies >> 6) + 1]; // movies already picked for the current user
+        int[] movies = new int[numMovies / 2 + 1];
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 20)) {
+            out.write(total + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int userId = 1; userId <= numUsers; userId++) {
+                int n = perUser[userId - 1];
+                // popular movies first; fall back to uniform picks if the user has rated most of them
+                int count = 0;
+                for (int tries = 0; count < n && tries < 4 * n; tries++) {
+                    int movieId = movieOfRank[sample(popularity, random)];
+                    if (mark(rated, movieId))
+                        movies[count++] = movieId;
+                }
+                while (count < n) {
+                    int movieId = 1 + random.nextInt(numMovies);
+                    if (mark(rated, movieId))
+                        movies[count++] = movieId;
+                }
+                Arrays.sort(movies, 0, count);
+                double bias = random.nextGaussian() * 0.5;
+                long start = FIRST_TIME + (long) (random.nextDouble() * TIME_SPAN);
+                long span = (long) (random.nextDouble() * (FIRST_TIME + TIME_SPAN - start)); // active period of the user
+                for (int i = 0; i < count; i++) {
+                    long time = start + (long) (random.nextDouble() * span);
+                    int movieId = movies[i];
+                    rated[movieId >> 6] = 0; // clear for the next user
+                    double score = quality[movieId] + bias + random.nextGaussian() * 0.7;
+                    double rating = Math.max(0.5, Math.min(5, Math.round(score * 2) / 2.0));
+                    line.setLength(0);
+                    line.append(userId).append(',').append(movieId).append(',').append(rating).append(',').append(time).append('\n');
+                    out.write(line.toString());
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Number of ratings of each user, by a power law over a random order of the users */
+    private int[] ratingsPerUser(Random random) {
+        int maxPerUser = Math.max(1, numMovies / 2);
+        int min = Math.min(minRatingsPerUser, maxPerUser);
+        double[] weights = new double[numUsers];
+        double sum = 0;
+        for (int r = 0; r < numUsers; r++) {
+            weights[r] = 1 / Math.pow(r + 1, activityExponent);
+            sum += weights[r];
+        }
+        int[] userOfRank = shuffledIds(numUsers, random);
+        int[] perUser = new int[numUsers];
+        double extra = Math.max(0, numRatings - (long) min * numUsers);
+        for (int r = 0; r < numUsers; r++)
+            perUser[userOfRank[r] - 1] = (int) Math.min(maxPerUser, min + Math.round(extra * weights[r] / sum));
+        return perUser;
+    }
+
+    /** Returns the cumulative distribution of a Zipf law over n ranks */
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int r = 0; r < n; r++) {
+            sum += 1 / Math.pow(r + 1, exponent);
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < n; r++)
+            cdf[r] /= sum;
+        return cdf;
+    }
+
+    /** Picks a rank (0-based) from a cumulative distribution */
+    private static int sample(double[] cdf, Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+
+    /** Returns ids 1..n in random order, indexed from 0 */
+    private static int[] shuffledIds(int n, Random random) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++)
+            ids[i] = i + 1;
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = ids[i];
+            ids[i] = ids[j];
+            ids[j] = t;
+        }
+        return ids;
+    }
+
+    /** Sets the bit of the movie; returns false if it was already set */
+    private static boolean mark(long[] bits, int movieId) {
+        long bit = 1L << movieId;
+        if ((bits[movieId >> 6] & bit) != 0)
+            return false;
+        bits[movieId >> 6] |= bit;
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: DatasetGenerator outputDir numUsers numMovies numRatings [popularityExponent activityExponent seed]");
+            return;
+        }
+        DatasetGenerator generator = new DatasetGenerator()
+                .setNumUsers(Integer.parseInt(args[1]))
+                .setNumMovies(Integer.parseInt(args[2]))
+                .setNumRatings(Long.parseLong(args[3]));
+        if (args.length > 4)
+            generator.setPopularityExponent(Double.parseDouble(args[4]));
+        if (args.length > 5)
+            generator.setActivityExponent(Double.parseDouble(args[5]));
+        if (args.length > 6)
+            generator.setSeed(Long.parseLong(args[6]));
+        File dir = new File(args[0]);
+        dir.mkdirs();
+        generator.writeMovies(new File(dir, "movies.csv").getPath());
+        long written = generator.writeRatings(new File(dir, "ratings.csv").getPath());
+        System.out.println("Wrote " + written + " ratings of " + args[1] + " users to " + dir);
+    }
+}
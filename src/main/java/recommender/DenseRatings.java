@@ -0,0 +1,153 @@
+package recommender;
+
+/** The ratings of a heavy user as a dense vector indexed by movie id: one byte per movie id
+ *  from the user's smallest to largest rated id, holding the rating in half stars (0 = not rated).
+ *  The sorted sparse arrays are kept next to it for iteration, so it is a UserRatings like any other.
+ *  Looking up a movie is one array read instead of a binary search or a merge step, which turns
+ *  a similarity with a heavy user into one pass over the other user's ratings:
+ *      sparse x dense: walk the sparse user's ids and read the dense vector,
+ *      dense x dense: walk the lighter user's ids inside the range both vectors cover, reading both vectors.
+ *  Costs about one byte per movie id in the user's range on top of the sparse arrays, which is
+ *  why only users with at least User.DENSE_USER_RATINGS ratings get one.
+ */
+final class DenseRatings implements UserRatings {
+    private final SparseRatings sparse;
+    private final byte[] halfStars; // halfStars[movieId - base] is the rating * 2, 0 if not rated
+    private final int base; // smallest rated movie id
+
+    private DenseRatings(SparseRatings sparse, byte[] halfStars, int base) {
+        this.sparse = sparse;
+        this.halfStars = halfStars;
+        this.base = base;
+    }
+
+    /**
+     * Checks whether the ratings can be stored densely: there must be at least one, and every
+     * rating must be a multiple of 0.5 in [0.5, 5] (0 marks a movie that is not rated)
+     * @param ratings ratings sorted by movie id
+     * @return true if of will accept them
+     */
+    static boolean canStore(UserRatings ratings) {
+        for (int i = 0; i < ratings.size(); i++) {
+            double h = ratings.ratingAt(i) * 2;
+            if (h != Math.rint(h) || h < 1 || h > 10)
+                return false;
+        }
+        return ratings.size() > 0;
+    }
+
+    /**
+     * Builds the dense vector of a user
+     * @param sparse ratings sorted by movie id; must pass canStore
+     * @return dense ratings
+     */
+    static DenseRatings of(SparseRatings sparse) {
+        int n = sparse.size();
+        int base = sparse.movieIds[0];
+        byte[] halfStars = new byte[sparse.movieIds[n - 1] - base + 1];
+        for (int i = 0; i < n; i++)
+            halfStars[sparse.movieIds[i] - base] = (byte) (sparse.ratings[i] * 2);
+        return new DenseRatings(sparse, halfStars, base);
+    }
+
+    /** Returns the estimated heap used by this object, its vector and its sparse arrays */
+    long getBytesUsed() {
+        return MemoryReport.object(2 * MemoryReport.REFERENCE + 4) + MemoryReport.array(halfStars.length, 1)
+                + sparse.getBytesUsed();
+    }
+
+    public int size() {
+        return sparse.size();
+    }
+
+    public int movieIdAt(int i) {
+        return sparse.movieIds[i];
+    }
+
+    public double ratingAt(int i) {
+        return sparse.ratings[i];
+    }
+
+    public double getRating(int movieId) {
+        int h = halfStarsOf(movieId);
+        return h == 0 ? -1 : h * 0.5;
+    }
+
+    public int intersect(UserRatings other, double[] x, double[] y) {
+        return sparse.intersect(other, x, y);
+    }
+
+    public int[] rankedMovieIds() {
+        return sparse.rankedMovieIds();
+    }
+
+    /** Returns the rating of a movie in half stars, 0 if it is not rated */
+    private int halfStarsOf(int movieId) {
+        int i = movieId - base;
+        return i >= 0 && i < halfStars.length ? halfStars[i] : 0;
+    }
+
+    /**
+     * Pearson correlation with another user's ratings, reading this user's ratings from the
+     * dense vector. Ratings are half stars, so the sums are exact and the result is the same as
+     * with the merge-join, whatever the order in which the co-rated movies are visited.
+     * @param other ratings of the other user
+     * @return correlation, NaN if it is undefined
+     */
+    double pearson(UserRatings other) {
+        if (other instanceof DenseRatings) {
+            DenseRatings d = (DenseRatings) other;
+            return d.size() < size() ? pearsonDense(d, this) : pearsonDense(this, d);
+        }
+        int n = 0;
+        double sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        for (int i = 0; i < other.size(); i++) {
+            int h = halfStarsOf(other.movieIdAt(i));
+            if (h != 0) {
+                double x = h * 0.5;
+                double y = other.ratingAt(i);
+                n++;
+                sumx += x;
+                sumy += y;
+                sumx2 += x * x;
+                sumy2 += y * y;
+                sumxy += x * y;
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+
+    /**
+     * Dense x dense: walks the lighter user's ids inside the range both vectors cover and reads
+     * both ratings from the vectors, so only one id array and two byte arrays are touched.
+     */
+    private static double pearsonDense(DenseRatings lighter, DenseRatings heavier) {
+        int from = Math.max(lighter.base, heavier.base);
+        int to = Math.min(lighter.base + lighter.halfStars.length, heavier.base + heavier.halfStars.length);
+        byte[] a = lighter.halfStars;
+        byte[] b = heavier.halfStars;
+        int aOff = lighter.base;
+        int bOff = heavier.base;
+        int n = 0;
+        double sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        // start at the first rated movie of the lighter user inside the common range
+        int i = lighter.sparse.indexOf(from);
+        for (i = i >= 0 ? i : -(i + 1); i < lighter.size(); i++) {
+            int movieId = lighter.sparse.movieIds[i];
+            if (movieId >= to)
+                break;
+            int hb = b[movieId - bOff];
+            if (hb != 0) {
+                double x = a[movieId - aOff] * 0.5;
+                double y = hb * 0.5;
+                n++;
+                sumx += x;
+                sumy += y;
+                sumx2 += x * x;
+                sumy2 += y * y;
+                sumxy += x * y;
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+}
@@ -0,0 +1,445 @@
+package recommender;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A latent-factor model of the ratings, trained with lock-free ("Hogwild") parallel SGD.
+ *  Every user and every movie gets a dense vector of numFactors floats, plus a bias.
+ *  The predicted rating of a movie for a user is
+ *      globalMean + userBias + movieBias + dot(userFactors, movieFactors)
+ *  so scoring a movie does not depend on the number of users.
+ *  Users and movies are stored by a dense index (position in the sorted userIds / movieIds arrays),
+ *  and all factors live in two flat float arrays.
+ */
+public class FactorModel {
+    private static final int MAGIC = 0x464d4f44; // "FMOD"
+    private static final int VERSION = 1;
+
+    private final int numFactors;
+    private final int[] userIds; // sorted user ids; position in the array is the dense user index
+    private final int[] movieIds; // sorted movie ids; position in the array is the dense movie index
+    private final float[] userFactors; // userIds.length * numFactors
+    private final float[] movieFactors; // movieIds.length * numFactors
+    private final float[] userBias;
+    private final float[] movieBias;
+    private float globalMean;
+
+    private FactorModel(int numFactors, int[] userIds, int[] movieIds) {
+        this.numFactors = numFactors;
+        this.userIds = userIds;
+        this.movieIds = movieIds;
+        userFactors = new float[userIds.length * numFactors];
+        movieFactors = new float[movieIds.length * numFactors];
+        userBias = new float[userIds.length];
+        movieBias = new float[movieIds.length];
+    }
+
+    /**
+     * Trains a model on the ratings of the given users.
+     * Each epoch shuffles the ratings and splits them into one stripe per thread;
+     * threads update the shared factor arrays without locking (Hogwild SGD).
+     * @param users array of users, index is the user id (null slots are skipped)
+     * @param numFactors number of latent factors per user/movie
+     * @param epochs number of passes over the ratings
+     * @param threads number of worker threads; 0 means one per available core
+     * @return trained model
+     */
+    public static FactorModel train(User[] users, int numFactors, int epochs, int threads) {
+        return train(users, numFactors, epochs, threads, 0.01f, 0.05f, 42);
+    }
+
+    /**
+     * Trains a model on the ratings of the given users.
+     * @param users array of users, index is the user id (null slots are skipped)
+     * @param numFactors number of latent factors per user/movie
+     * @param epochs number of passes over the ratings
+     * @param threads number of worker threads; 0 means one per available core
+     * @param learningRate SGD step size
+     * @param regularization L2 regularization weight
+     * @param seed seed for the initial factors and the shuffles
+     * @return trained model
+     */
+    public static FactorModel train(User[] users, int numFactors, int epochs, int threads,
+                                    float learningRate, float regularization, long seed) {
+        if (numFactors <= 0 || epochs < 0)
+            throw new IllegalArgumentException("numFactors must be positive and epochs non-negative");
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+
+        // flatten the ratings into primitive arrays (user id, movie id, rating)
+        int total = 0;
+        int numUsers = 0;
+        for (User user : users) {
+            if (user != null) {
+                numUsers++;
+                total += user.sortedRatings().size();
+            }
+        }
+        int[] uIds = new int[numUsers];
+        int[] rUser = new int[total];
+        int[] rMovie = new int[total];
+        float[] rValue = new float[total];
+        int u = 0;
+        int r = 0;
+        for (User user : users) {
+            if (user != null) {
+                uIds[u] = user.getId();
+                UserRatings ratings = user.sortedRatings();
+                for (int i = 0; i < ratings.size(); i++) {
+                    rUser[r] = user.getId();
+                    rMovie[r] = ratings.movieIdAt(i);
+                    rValue[r] = (float) ratings.ratingAt(i);
+                    r++;
+                }
+                u++;
+            }
+        }
+        Arrays.sort(uIds);
+        int[] mIds = distinctSorted(rMovie);
+
+        FactorModel model = new FactorModel(numFactors, uIds, mIds);
+        double sum = 0;
+        for (int i = 0; i < total; i++) {
+            // replace ids by dense indices
+            rUser[i] = Arrays.binarySearch(uIds, rUser[i]);
+            rMovie[i] = Arrays.binarySearch(mIds, rMovie[i]);
+            sum += rValue[i];
+        }
+        model.globalMean = total == 0 ? 0 : (float) (sum / total);
+
+        Random random = new Random(seed);
+        float scale = 0.1f / (float) Math.sqrt(numFactors);
+        for (int i = 0; i < model.userFactors.length; i++)
+            model.userFactors[i] = (float) random.nextGaussian() * scale;
+        for (int i = 0; i < model.movieFactors.length; i++)
+            model.movieFactors[i] = (float) random.nextGaussian() * scale;
+
+        int[] order = new int[total];
+        for (int i = 0; i < total; i++)
+            order[i] = i;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] stripes = new Future<?>[threads];
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                shuffle(order, random);
+                for (int t = 0; t < threads; t++) {
+                    int from = (int) ((long) total * t / threads);
+                    int to = (int) ((long) total * (t + 1) / threads);
+                    stripes[t] = pool.submit(() -> model.sgd(order, from, to, rUser, rMovie, rValue,
+                            learningRate, regularization));
+                }
+                for (Future<?> stripe : stripes)
+                    stripe.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Training failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return model;
+    }
+
+    /** Runs one SGD pass over ratings order[from..to) */
+    private void sgd(int[] order, int from, int to, int[] rUser, int[] rMovie, float[] rValue,
+                     float lr, float reg) {
+        for (int i = from; i < to; i++) {
+            int idx = order[i];
+            int u = rUser[idx];
+            int m = rMovie[idx];
+            int uOff = u * numFactors;
+            int mOff = m * numFactors;
+            float err = rValue[idx] - (globalMean + userBias[u] + movieBias[m]
+                    + dot(userFactors, uOff, movieFactors, mOff, numFactors));
+            userBias[u] += lr * (err - reg * userBias[u]);
+            movieBias[m] += lr * (err - reg * movieBias[m]);
+            for (int f = 0; f < numFactors; f++) {
+                float pu = userFactors[uOff + f];
+                float qm = movieFactors[mOff + f];
+                userFactors[uOff + f] = pu + lr * (err * qm - reg * pu);
+                movieFactors[mOff + f] = qm + lr * (err * pu - reg * qm);
+            }
+        }
+    }
+
+    private static float dot(float[] a, int aOff, float[] b, int bOff, int n) {
+        float sum = 0;
+        for (int f = 0; f < n; f++)
+            sum += a[aOff + f] * b[bOff + f];
+        return sum;
+    }
+
+    private static int[] distinctSorted(int[] values) {
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        int n = 0;
+        for (int i = 0; i < copy.length; i++) {
+            if (i == 0 || copy[i] != copy[i - 1])
+                copy[n++] = copy[i];
+        }
+        return Arrays.copyOf(copy, n);
+    }
+
+    private static void shuffle(int[] a, Random random) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    /** Returns the number of latent factors */
+    public int getNumFactors() {
+        return numFactors;
+    }
+
+    /**
+     * Predicts the rating the given user would give to the given movie.
+     * Unknown users or movies fall back to the global mean (plus whatever bias is known).
+     * @param userId id of the user
+     * @param movieId id of the movie
+     * @return predicted rating
+     */
+    public double predict(int userId, int movieId) {
+        int u = Arrays.binarySearch(userIds, userId);
+        int m = Arrays.binarySearch(movieIds, movieId);
+        float p = globalMean;
+        if (u >= 0)
+            p += userBias[u];
+        if (m >= 0)
+            p += movieBias[m];
+        if (u >= 0 && m >= 0)
+            p += dot(userFactors, u * numFactors, movieFactors, m * numFactors, numFactors);
+        return p;
+    }
+
+    /**
+     * Returns up to n movie ids with the highest predicted rating for the given user,
+     * best first, skipping movies the user has already rated.
+     * Scans all movies once and keeps the best n in a bounded min-heap.
+     * @param user the user
+     * @param n maximum number of movies to return
+     * @return movie ids, best first (empty if the user is unknown to the model)
+     */
+    public int[] recommend(User user, int n) {
+        int u = Arrays.binarySearch(userIds, user.getId());
+        if (u < 0 || n <= 0)
+            return new int[0];
+        boolean[] seen = new boolean[movieIds.length];
+        UserRatings ratings = user.sortedRatings();
+        for (int i = 0; i < ratings.size(); i++) {
+            int m = Arrays.binarySearch(movieIds, ratings.movieIdAt(i));
+            if (m >= 0)
+                seen[m] = true;
+        }
+        int uOff = u * numFactors;
+        float base = globalMean + userBias[u];
+        TopN top = new TopN(Math.min(n, movieIds.length)); // the heap never holds more than every movie
+        for (int m = 0, mOff = 0; m < movieIds.length; m++, mOff += numFactors) {
+            if (!seen[m])
+                top.offer(m, base + movieBias[m] + dot(userFactors, uOff, movieFactors, mOff, numFactors));
+        }
+        int[] result = top.drainDescending();
+        for (int i = 0; i < result.length; i++)
+            result[i] = movieIds[result[i]];
+        return result;
+    }
+
+    /**
+     * Returns up to n movie ids with the highest predicted rating for the given user among the
+     * given candidate movies (for instance, the movies of some genres), best first,
+     * skipping movies the user has already rated. Only the candidates are scored.
+     * @param user the user
+     * @param n maximum number of movies to return
+     * @param candidates ids of the movies to consider
+     * @return movie ids, best first (empty if the user is unknown to the model)
+     */
+    public int[] recommend(User user, int n, int[] candidates) {
+        int u = Arrays.binarySearch(userIds, user.getId());
+        if (u < 0 || n <= 0)
+            return new int[0];
+        UserRatings seen = user.sortedRatings();
+        int uOff = u * numFactors;
+        float base = globalMean + userBias[u];
+        TopN top = new TopN(Math.min(n, Math.min(candidates.length, movieIds.length)));
+        for (int movieId : candidates) {
+            int m = Arrays.binarySearch(movieIds, movieId);
+            if (m >= 0 && seen.getRating(movieId) < 0)
+                top.offer(m, base + movieBias[m] + dot(userFactors, uOff, movieFactors, m * numFactors, numFactors));
+        }
+        int[] result = top.drainDescending();
+        for (int i = 0; i < result.length; i++)
+            result[i] = movieIds[result[i]];
+        return result;
+    }
+
+    /**
+     * Root mean squared error of the model on the ratings of the given users
+     * @param users array of users (null slots are skipped)
+     * @return RMSE, or 0 if there are no ratings
+     */
+    public double rmse(User[] users) {
+        double sum = 0;
+        long n = 0;
+        for (User user : users) {
+            if (user != null) {
+                UserRatings ratings = user.sortedRatings();
+                for (int i = 0; i < ratings.size(); i++) {
+                    double err = ratings.ratingAt(i) - predict(user.getId(), ratings.movieIdAt(i));
+                    sum += err * err;
+                    n++;
+                }
+            }
+        }
+        return n == 0 ? 0 : Math.sqrt(sum / n);
+    }
+
+    /** Returns the estimated heap used by the id tables, biases and factors */
+    public long getBytesUsed() {
+        return MemoryReport.array(userIds.length, 4) + MemoryReport.array(movieIds.length, 4)
+                + MemoryReport.array(userFactors.length, 4) + MemoryReport.array(movieFactors.length, 4)
+                + MemoryReport.array(userBias.length, 4) + MemoryReport.array(movieBias.length, 4);
+    }
+
+    /**
+     * Saves the model to a binary file
+     * @param filename name of the file
+     * @throws IOException if the file can not be written
+     */
+    public void save(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numFactors);
+            out.writeInt(userIds.length);
+            out.writeInt(movieIds.length);
+            out.writeFloat(globalMean);
+            for (int id : userIds)
+                out.writeInt(id);
+            for (int id : movieIds)
+                out.writeInt(id);
+            writeFloats(out, userBias);
+            writeFloats(out, movieBias);
+            writeFloats(out, userFactors);
+            writeFloats(out, movieFactors);
+        }
+    }
+
+    /**
+     * Loads a model previously written by save
+     * @param filename name of the file
+     * @return the model
+     * @throws IOException if the file can not be read or is not a model file
+     */
+    public static FactorModel load(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a factor model file: " + filename);
+            int numFactors = in.readInt();
+            int[] userIds = new int[in.readInt()];
+            int[] movieIds = new int[in.readInt()];
+            float mean = in.readFloat();
+            for (int i = 0; i < userIds.length; i++)
+                userIds[i] = in.readInt();
+            for (int i = 0; i < movieIds.length; i++)
+                movieIds[i] = in.readInt();
+            FactorModel model = new FactorModel(numFactors, userIds, movieIds);
+            model.globalMean = mean;
+            readFloats(in, model.userBias);
+            readFloats(in, model.movieBias);
+            readFloats(in, model.userFactors);
+            readFloats(in, model.movieFactors);
+            return model;
+        }
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float v : values)
+            out.writeFloat(v);
+    }
+
+    private static void readFloats(DataInputStream in, float[] values) throws IOException {
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readFloat();
+    }
+
+    // ------------------------------------------------------
+    /**
+     * A bounded min-heap of (index, score) pairs kept in two parallel primitive arrays.
+     * Keeps the n highest scores seen so far.
+     */
+    static class TopN {
+        private final int[] index;
+        private final float[] score;
+        private int size;
+
+        TopN(int capacity) {
+            index = new int[capacity];
+            score = new float[capacity];
+        }
+
+        /** Offers a candidate; it is kept if the heap is not full or it beats the current minimum */
+        void offer(int i, float s) {
+            if (size < index.length) {
+                index[size] = i;
+                score[size] = s;
+                siftUp(size++);
+            } else if (s > score[0]) {
+                index[0] = i;
+                score[0] = s;
+                siftDown(0);
+            }
+        }
+
+        /** Removes all elements and returns their indices from the highest score to the lowest */
+        int[] drainDescending() {
+            int[] result = new int[size];
+            for (int k = size - 1; k >= 0; k--) {
+                result[k] = index[0];
+                size--;
+                index[0] = index[size];
+                score[0] = score[size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (score[parent] <= score[k])
+                    break;
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        private void siftDown(int k) {
+            while (true) {
+                int left = 2 * k + 1;
+                if (left >= size)
+                    break;
+                int smallest = left;
+                if (left + 1 < size && score[left + 1] < score[left])
+                    smallest = left + 1;
+                if (score[k] <= score[smallest])
+                    break;
+                swap(k, smallest);
+                k = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int ti = index[a];
+            index[a] = index[b];
+            index[b] = ti;
+            float ts = score[a];
+            score[a] = score[b];
+            score[b] = ts;
+        }
+    }
+}
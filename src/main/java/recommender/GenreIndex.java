@@ -0,0 +1,173 @@
+package recommender;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Genres of the movies, as a 64-bit mask per movie (one bit per genre),
+ *  plus an index from each genre to the sorted ids of its movies.
+ *  Genre names are assigned bits in the order they are first seen; at most 64 genres are supported.
+ *  Filtering a movie by a set of genres is a single AND: (mask(movieId) & filter) != 0.
+ */
+public class GenreIndex {
+    private final Map<String, Integer> bits = new HashMap<>(); // genre name -> bit number
+    private String[] names = new String[64]; // bit number -> genre name
+    private long[] masks; // index is the movieId, the value is the genre mask of the movie
+    private int[][] moviesByGenre; // bit number -> sorted movie ids; built by build()
+
+    /**
+     * Creates an empty index
+     * @param maxMovieId largest movie id that will be added
+     */
+    public GenreIndex(int maxMovieId) {
+        masks = new long[maxMovieId + 1];
+    }
+
+    /**
+     * Sets the genres of a movie
+     * @param movieId id of the movie
+     * @param genres pipe-separated list of genres, as in the third column of movies.csv
+     */
+    public void add(int movieId, String genres) {
+        long mask = 0;
+        for (String genre : genres.split("\\|")) {
+            if (!genre.isEmpty())
+                mask |= 1L << bitOf(genre);
+        }
+        if (movieId >= masks.length)
+            masks = Arrays.copyOf(masks, Math.max(movieId + 1, masks.length * 2));
+        masks[movieId] = mask;
+        moviesByGenre = null;
+    }
+
+    private int bitOf(String genre) {
+        Integer bit = bits.get(genre);
+        if (bit == null) {
+            if (bits.size() == 64)
+                throw new IllegalStateException("More than 64 genres: " + genre);
+            bit = bits.size();
+            bits.put(genre, bit);
+            names[bit] = genre;
+        }
+        return bit;
+    }
+
+    /**
+     * Returns the mask that selects movies of any of the given genres.
+     * Unknown genre names select nothing.
+     * @param genres genre names, like "Comedy"
+     * @return genre mask
+     */
+    public long mask(String... genres) {
+        long mask = 0;
+        for (String genre : genres) {
+            Integer bit = bits.get(genre);
+            if (bit != null)
+                mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    /** Returns the genre mask of the given movie (0 if unknown) */
+    public long getMask(int movieId) {
+        return movieId >= 0 && movieId < masks.length ? masks[movieId] : 0;
+    }
+
+    /**
+     * Checks whether the movie belongs to any of the genres in the filter
+     * @param movieId id of the movie
+     * @param filter genre mask; 0 means "no filter" and accepts every movie
+     * @return true if the movie passes the filter
+     */
+    public boolean matches(int movieId, long filter) {
+        return filter == 0 || (getMask(movieId) & filter) != 0;
+    }
+
+    /**
+     * Returns the sorted ids of the movies that belong to any of the genres in the filter
+     * @param filter genre mask
+     * @return sorted movie ids
+     */
+    public int[] getMovies(long filter) {
+        int[][] byGenre = moviesByGenre();
+        if (Long.bitCount(filter) == 1)
+            return byGenre[Long.numberOfTrailingZeros(filter)].clone();
+        int count = 0;
+        for (long mask : masks) {
+            if ((mask & filter) != 0)
+                count++;
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int id = 0; id < masks.length; id++) {
+            if ((masks[id] & filter) != 0)
+                result[count++] = id;
+        }
+        return result;
+    }
+
+    /** Returns the names of the genres in the mask */
+    public String[] getNames(long mask) {
+        String[] result = new String[Long.bitCount(mask)];
+        int i = 0;
+        for (long m = mask; m != 0; m &= m - 1)
+            result[i++] = names[Long.numberOfTrailingZeros(m)];
+        return result;
+    }
+
+    /** Returns the number of distinct genres */
+    public int size() {
+        return bits.size();
+    }
+
+    /** Returns the estimated heap used by the masks and the per-genre movie lists */
+    public long getBytesUsed() {
+        long bytes = MemoryReport.array(masks.length, 8) + MemoryReport.array(names.length, MemoryReport.REFERENCE);
+        int[][] byGenre = moviesByGenre;
+        if (byGenre != null) {
+            bytes += MemoryReport.array(byGenre.length, MemoryReport.REFERENCE);
+            for (int[] movies : byGenre)
+                bytes += MemoryReport.array(movies.length, 4);
+        }
+        return bytes;
+    }
+
+    /** Returns the number of slots in the mask array (largest movie id + 1) */
+    int capacity() {
+        return masks.length;
+    }
+
+    /** Returns the number of movies with at least one genre */
+    int countMovies() {
+        int n = 0;
+        for (long mask : masks) {
+            if (mask != 0)
+                n++;
+        }
+        return n;
+    }
+
+    private int[][] moviesByGenre() {
+        int[][] byGenre = moviesByGenre;
+        if (byGenre == null) {
+            int[] counts = new int[64];
+            for (long mask : masks) {
+                for (long m = mask; m != 0; m &= m - 1)
+                    counts[Long.numberOfTrailingZeros(m)]++;
+            }
+            byGenre = new int[64][];
+            for (int bit = 0; bit < 64; bit++)
+                byGenre[bit] = new int[counts[bit]];
+            Arrays.fill(counts, 0);
+            // movie ids are visited in increasing order, so every list is sorted
+            for (int id = 0; id < masks.length; id++) {
+                for (long m = masks[id]; m != 0; m &= m - 1) {
+                    int bit = Long.numberOfTrailingZeros(m);
+                    byGenre[bit][counts[bit]++] = id;
+                }
+            }
+            moviesByGenre = byGenre;
+        }
+        return byGenre;
+    }
+}
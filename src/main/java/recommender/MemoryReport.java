@@ -0,0 +1,203 @@
+package recommender;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** An estimate of the memory used by each data structure of a MovieRecommender.
+ *  Sizes are computed from the number and shape of the objects, assuming a 64-bit JVM with
+ *  compressed references (heaps under 32 GB): 12-byte object headers, 16-byte array headers,
+ *  4-byte references, everything aligned to 8 bytes. Small fixed-size objects are ignored.
+ *  Off-heap memory (direct buffers, mapped files) is reported separately.
+ */
+public class MemoryReport {
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    private final List<Entry> onHeap = new ArrayList<>();
+    private final List<Entry> offHeap = new ArrayList<>();
+    private long numRatings;
+    private int numUsers;
+
+    /** Returns the size of an object with the given size of fields, header included */
+    static long object(long fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /** Returns the size of an array of n elements of the given size */
+    static long array(long n, int elementSize) {
+        return align(ARRAY_HEADER + n * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Measures the data structures of a recommender. Walks every user, so it takes time
+     * proportional to the number of ratings.
+     * @param recommender the recommender
+     * @return the report
+     */
+    static MemoryReport of(MovieRecommender recommender) {
+        MemoryReport report = new MemoryReport();
+        User[] users = recommender.users();
+        if (users != null) {
+            long userObjects = 0, ratingLists = 0, caches = 0, compressed = 0, timelines = 0;
+            for (User user : users) {
+                if (user == null)
+                    continue;
+                report.numUsers++;
+                report.numRatings += user.numRatings();
+                userObjects += User.OBJECT_BYTES;
+                ratingLists += user.ratingsBytes();
+                caches += user.cacheBytes();
+                compressed += user.compressedBytes();
+                if (user.timeline() != null)
+                    timelines += user.timeline().getBytesUsed();
+            }
+            report.addArray("users array", array(users.length, REFERENCE), users.length, report.numUsers);
+            report.add("User objects", userObjects);
+            report.add("ratings (RatingsList nodes)", ratingLists);
+            report.add("sorted ratings caches", caches);
+            report.add("compressed ratings", compressed);
+            report.add("rating timestamps", timelines);
+        }
+        MovieTitles titles = recommender.getMovieTitles();
+        if (titles != null) {
+            report.add("movie titles", titles.getBytesUsed());
+        }
+        GenreIndex genres = recommender.getGenres();
+        if (genres != null)
+            report.addArray("genre index", genres.getBytesUsed(), genres.capacity(), genres.countMovies());
+        MovieStats stats = recommender.movieStats();
+        if (stats != null)
+            report.addArray("movie statistics", stats.getBytesUsed(), stats.capacity(), stats.getNumMovies());
+        FactorModel model = recommender.factorModel();
+        if (model != null)
+            report.add("factor model", model.getBytesUsed());
+        int[] userIds = recommender.userIds();
+        if (userIds != null)
+            report.add("user id index", array(userIds.length, 4));
+        RecommendationCache cache = recommender.getResultCache();
+        if (cache != null) // slots are the maximum number of entries
+            report.addArray("result cache", cache.getBytesUsed(), cache.getMaxEntries(), cache.size());
+
+        OffHeapRatingStore store = recommender.getRatingStore();
+        if (store != null)
+            report.offHeap.add(new Entry("off-heap ratings (allocated)", store.getBytesAllocated(), 0, 0));
+        NeighbourGraph graph = recommender.neighbourGraph();
+        if (graph != null)
+            report.offHeap.add(new Entry("neighbour graph (mapped)", graph.getBytesMapped(), 0, 0));
+        return report;
+    }
+
+    private void add(String name, long bytes) {
+        onHeap.add(new Entry(name, bytes, 0, 0));
+    }
+
+    private void addArray(String name, long bytes, long slots, long used) {
+        onHeap.add(new Entry(name, bytes, slots, used));
+    }
+
+    /**
+     * Returns the estimated size of one structure
+     * @param name name of the structure, as printed in the report
+     * @return bytes, or -1 if the report has no such structure
+     */
+    public long getBytes(String name) {
+        for (Entry e : onHeap)
+            if (e.name.equals(name))
+                return e.bytes;
+        for (Entry e : offHeap)
+            if (e.name.equals(name))
+                return e.bytes;
+        return -1;
+    }
+
+    /** Returns the estimated heap used by all the structures */
+    public long getHeapBytes() {
+        long total = 0;
+        for (Entry e : onHeap)
+            total += e.bytes;
+        return total;
+    }
+
+    /** Returns the memory used outside the heap */
+    public long getOffHeapBytes() {
+        long total = 0;
+        for (Entry e : offHeap)
+            total += e.bytes;
+        return total;
+    }
+
+    /** Returns the number of ratings */
+    public long getNumRatings() {
+        return numRatings;
+    }
+
+    /** Returns the number of users */
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /** Returns the heap and off-heap bytes per rating, NaN without ratings */
+    public double getBytesPerRating() {
+        return numRatings == 0 ? Double.NaN : (double) (getHeapBytes() + getOffHeapBytes()) / numRatings;
+    }
+
+    /** Returns a one-line summary, used to log the footprint after loading */
+    public String summary() {
+        return String.format("Loaded %,d ratings of %,d users: %s on heap, %s off heap, %.1f bytes per rating",
+                numRatings, numUsers, format(getHeapBytes()), format(getOffHeapBytes()), getBytesPerRating());
+    }
+
+    /** Returns the full report, one line per structure */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Memory report (estimated)\n");
+        for (Entry e : onHeap)
+            sb.append(e).append('\n');
+        sb.append(String.format("  %-30s %12s%n", "total on heap", format(getHeapBytes())));
+        for (Entry e : offHeap)
+            sb.append(e).append('\n');
+        sb.append(String.format("  %-30s %12s%n", "total off heap", format(getOffHeapBytes())));
+        sb.append(String.format("  %,d ratings, %,d users, %.1f bytes per rating", numRatings, numUsers, getBytesPerRating()));
+        return sb.toString();
+    }
+
+    private static String format(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024)
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    // ------------------------------------------------------
+    /**
+     * One measured structure. For arrays indexed by id, slots is the length of the array
+     * and used the number of slots that hold something.
+     */
+    private static class Entry {
+        final String name;
+        final long bytes;
+        final long slots;
+        final long used;
+
+        Entry(String name, long bytes, long slots, long used) {
+            this.name = name;
+            this.bytes = bytes;
+            this.slots = slots;
+            this.used = used;
+        }
+
+        public String toString() {
+            String line = String.format("  %-30s %12s", name, format(bytes));
+            if (slots > 0)
+                line += String.format("   (%,d slots, %.1f%% empty)", slots, 100.0 * (slots - used) / slots);
+            return line;
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package recommender;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** A class that is responsible for:
  - Reading movie and ratings data from the csv files
@@ -10,7 +17,20 @@ import java.io.*;
  */
 public class MovieRecommender {
     private User[] users; // An array of users;  index is the userid, the value is a User
-    private String[] movies; // An array of movie titles; the index is the movieId, the value is a title of the movie
+    private MovieTitles movies; // movie titles, UTF-8 encoded in one arena, looked up by movieId
+    private GenreIndex genres; // genres of the movies, from the third column of the movies file
+    private FactorModel model; // latent-factor model, null until trained or loaded
+    private OffHeapRatingStore ratingStore; // non-null once ratings are kept off the heap
+    private boolean compressed; // true once ratings are kept compressed
+    private int shardIndex = 0; // in sharded mode, only users with shardOf(userId, numShards) == shardIndex are loaded
+    private int numShards = 1;
+    private MovieStats stats; // per-movie rating statistics; built with the ratings, or on demand after setUsers
+    private int coldStartRatings = 0; // users with fewer ratings get the best movies overall; 0: off
+    private int[] userIds; // ids of the non-null users, ascending; built on demand for spliterators
+    private int[] usersByActivity; // ids of the non-null users, most ratings first; built at load and by setUsers
+    private NeighbourGraph graph; // precomputed neighbours of every user, null if none or stale
+    private volatile RatingLog ratingLog; // durable log of the changes made by addRating, null if none
+    private RecommendationCache resultCache; // cached results of computeRecommendations, null if disabled
 
     /**
      * Read movies and ratings from files
@@ -22,17 +42,20 @@ public class MovieRecommender {
         loadRatings(ratingsFilename);
     }
 
-    /** Load information about movie ids and titles from the given file.
-     * Store data in the array "movies".
+    /** Load information about movie ids, titles and genres from the given file.
+     * Store titles in the title table "movies" and genres in the genre index.
+     * The file is read as UTF-8.
      * @param movieFilename csv file that contains movie information.
      *
      */
-    private void loadMovies(String movieFilename) {
+    void loadMovies(String movieFilename) {
         // This method has been provided to you - no need to change it
-        try(FileReader fr = new FileReader(movieFilename); BufferedReader br = new BufferedReader(fr)) {
+        try(InputStreamReader fr = new InputStreamReader(new FileInputStream(movieFilename), StandardCharsets.UTF_8);
+            BufferedReader br = new BufferedReader(fr)) {
             String line;
-            int numMovies = Integer.parseInt(br.readLine()); // read the number of movies
-            movies = new String[numMovies + 1]; // we are not using index 0; movie ids start with 1.
+            int numMovies = Integer.parseInt(br.readLine()); // read the number of movies (the largest movie id)
+            MovieTitles.Builder titles = new MovieTitles.Builder();
+            genres = new GenreIndex(numMovies);
             int i = 1;
             while ((line = br.readLine()) != null) {
                 String[] info = line.split(",");
@@ -43,7 +66,7 @@ public class MovieRecommender {
                     String[] info1 = line.split("\"");
                     if (info1.length < 2) {
                         System.out.println("Format is wrong in line: " + i);
-                        return;
+                        break;
                     }
 
                     String movieIdS = info1[0].substring(0, info1[0].length() - 1);
@@ -54,9 +77,11 @@ public class MovieRecommender {
                     movieId = Integer.parseInt(info[0]);
                     movieTitle = info[1]; // includes year
                 }
-                movies[movieId] =  movieTitle;
+                titles.add(movieId, movieTitle);
+                genres.add(movieId, line.substring(line.lastIndexOf(',') + 1)); // genres are always the last column
                 i++;
             }
+            movies = titles.build();
         }
         catch (IOException e) {
             System.out.println(e);
@@ -68,38 +93,75 @@ public class MovieRecommender {
        The first line in the file is the total number of ratings
        Other lines are in the following format:
        userId,movieId,rating,timestamp
-       We will ignore the timestamp for thi project.
+       The timestamp is kept with each rating for time-windowed and time-decayed similarity.
        @param ratingsFilename name of the file that contains ratings
      */
-    private void loadRatings(String ratingsFilename) {
+    void loadRatings(String ratingsFilename) {
         try (BufferedReader br = new BufferedReader(new FileReader(ratingsFilename))) {
             int numRatings = Integer.parseInt(br.readLine()); // read the number of ratings
             users = new User[numRatings + 1]; // we are not using index 0; user ids start with 1.
+            userIds = null;
+            usersByActivity = null;
+            graph = null;
+            clearResultCache();
+            stats = new MovieStats(movies == null || movies.size() == 0 ? 0 : movies.getMovieId(movies.size() - 1));
             int i = 1;
            // FILL IN CODE: read each line, and split it by comma using the split method in class String.
-            // Read movie id, user id, and rating. Ignore the timestamp.
+            // Read movie id, user id, rating and timestamp.
             // If you see a userId that has already been added to the array "users",
             // you need to call insert(movieId, rating) on that user.
             // If this is a new User, point users[userid] to a new User object, and
             // call insert(movieId, rating) on the new user.
+            // The file is grouped by user: the rows of a user are buffered into a run and added
+            // with one insertAll, which builds the list in linear time when the run is sorted by
+            // movie id. A user whose rows are not contiguous gets the later runs inserted one by one.
             String str;
+            RatingRun run = new RatingRun();
             while((str = br.readLine()) != null) {
                 String[] set = str.split(","); //splits the line into the array
                 if(set.length == 4) {
-                    if(users[Integer.parseInt(set[0])] == null) { //if it's a new user, initialize
-                        User user = new User(Integer.parseInt(set[0]));
-                        user.insert(Integer.parseInt(set[1]), Double.parseDouble(set[2]));
-                        users[Integer.parseInt(set[0])] = user;
-                    }else { //else, insert given information
-                        users[Integer.parseInt(set[0])].insert(Integer.parseInt(set[1]), Double.parseDouble(set[2]));
-                    }
+                    int userId = Integer.parseInt(set[0]);
+                    if (numShards > 1 && shardOf(userId, numShards) != shardIndex)
+                        continue; // this user belongs to another shard
+                    if (userId != run.userId)
+                        addRun(run, userId);
+                    int movieId = Integer.parseInt(set[1]);
+                    double rating = Double.parseDouble(set[2]);
+                    stats.add(movieId, rating);
+                    run.add(movieId, rating, Long.parseLong(set[3]));
                 }
             }
+            addRun(run, 0);
+            usersByActivity = rankByActivity(); // built here so that budgeted searches do not pay for it
         } catch (IOException e) {
             System.out.println(e);
         }
     }
 
+    /**
+     * Adds the buffered rows of a run to its user (creating the user if needed) and starts
+     * a new run. In off-heap or compressed mode the user's ratings are then moved out of the
+     * heap or compressed.
+     * @param run the rows of one user
+     * @param nextUserId user id of the next run, 0 at the end of the file
+     */
+    private void addRun(RatingRun run, int nextUserId) {
+        if (run.size > 0) {
+            User user = users[run.userId];
+            if (user == null) { //if it's a new user, initialize
+                user = new User(run.userId);
+                users[run.userId] = user;
+            }
+            user.insertAll(run.movieIds, run.ratings, run.timestamps, run.size);
+            if (ratingStore != null)
+                user.moveOffHeap(ratingStore); // off-heap mode: the user's rows are over
+            else if (compressed)
+                user.compress();
+        }
+        run.userId = nextUserId;
+        run.size = 0;
+    }
+
     /**
      * Sets the array of users for this recommender
      * Provided to you; used in the test.
@@ -107,6 +169,365 @@ public class MovieRecommender {
      */
     public void setUsers(User[] users) {
         this.users = users;
+        stats = null;
+        userIds = null;
+        usersByActivity = users == null ? null : rankByActivity();
+        graph = null;
+        clearResultCache();
+    }
+
+    /**
+     * Returns the per-movie rating statistics (count, mean, Bayesian average, best movies).
+     * They are computed while loading the ratings, or from the users on the first call after setUsers.
+     * In sharded mode they only cover the users of this shard.
+     * @return movie statistics
+     */
+    public MovieStats getMovieStats() {
+        if (stats == null)
+            stats = MovieStats.of(users);
+        return stats;
+    }
+
+    /**
+     * Adds a new rating, or changes an existing one, keeping the movie statistics up to date.
+     * If a rating log is open, the change is written to it first; if that fails, the rating is not changed.
+     * Safe to call from several threads: changes are applied one at a time, in the order of the log,
+     * while concurrent writers share the log's forces.
+     * @param userId id of the user; a new user is created if needed
+     * @param movieId id of the movie
+     * @param rating the rating
+     * @param timestamp time of the rating in seconds since the epoch
+     */
+    public void addRating(int userId, int movieId, double rating, long timestamp) {
+        RatingLog log = ratingLog;
+        if (log == null) {
+            applyRating(userId, movieId, rating, timestamp);
+            return;
+        }
+        try {
+            // durable before it is visible
+            log.append(userId, movieId, rating, timestamp, () -> applyRating(userId, movieId, rating, timestamp));
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /** Makes a rating change visible; one change at a time */
+    private synchronized void applyRating(int userId, int movieId, double rating, long timestamp) {
+        MovieStats movieStats = getMovieStats();
+        if (userId >= users.length)
+            users = Arrays.copyOf(users, Math.max(userId + 1, users.length * 2));
+        if (users[userId] == null) {
+            users[userId] = new User(userId);
+            userIds = null;
+            int[] order = usersByActivity;
+            if (order != null) {
+                // a new user has the fewest ratings: append instead of re-sorting. The order only
+                // decides which candidates a budgeted search tries first, so it may lag behind
+                order = Arrays.copyOf(order, order.length + 1);
+                order[order.length - 1] = userId;
+                usersByActivity = order;
+            }
+        }
+        User user = users[userId];
+        graph = null; // the precomputed neighbours no longer match the ratings
+        if (resultCache != null)
+            resultCache.invalidate(userId);
+        double oldRating = user.getRating(movieId);
+        if (oldRating >= 0) {
+            user.setRating(movieId, rating, timestamp);
+            movieStats.update(movieId, oldRating, rating);
+        } else {
+            user.insert(movieId, rating, timestamp);
+            movieStats.add(movieId, rating);
+        }
+    }
+
+    /**
+     * Replays a rating log on top of the loaded ratings, then keeps it open so that every
+     * later addRating is logged. Call after loadData, with the ratings file the log was started from.
+     * @param logFilename name of the log file; created if it does not exist
+     * @return number of replayed changes, or -1 if the log could not be opened
+     */
+    public int openRatingLog(String logFilename) {
+        closeRatingLog();
+        try {
+            int replayed = RatingLog.replay(logFilename, this);
+            ratingLog = RatingLog.open(logFilename);
+            return replayed;
+        } catch (IOException e) {
+            System.out.println(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Starts folding the logged changes into a new ratings file in the background;
+     * addRating keeps working (and logging) meanwhile.
+     * @param ratingsFilename the ratings file the log was started from; it is replaced
+     * @return future that completes when the compaction is done, or null if no log is open
+     */
+    public Future<?> compactRatingLog(String ratingsFilename) {
+        return ratingLog == null ? null : ratingLog.compact(ratingsFilename);
+    }
+
+    /** Writes the pending changes and closes the rating log, if one is open */
+    public void closeRatingLog() {
+        if (ratingLog != null) {
+            try {
+                ratingLog.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+            ratingLog = null;
+        }
+    }
+
+    /**
+     * Serves findMostSimilarUser (without a time window or decay) from a precomputed
+     * neighbour graph instead of comparing the user with everyone.
+     * A graph built from other ratings than the loaded ones is refused; the graph is also
+     * dropped when the ratings change (addRating, setUsers or loadData).
+     * @param graph neighbour graph written by NeighbourGraph.build, or null to stop using one
+     * @return true if the graph is used, false if it is stale
+     */
+    public boolean setNeighbourGraph(NeighbourGraph graph) {
+        if (graph != null && graph.isStale(users)) {
+            System.out.println("Neighbour graph is stale: it was built from other ratings");
+            this.graph = null;
+            return false;
+        }
+        this.graph = graph;
+        return true;
+    }
+
+    /**
+     * Caches the results of computeRecommendations (and so of findRecommendations): repeated
+     * requests for the same user, number and options within the time to live are answered
+     * without a neighbour scan, and concurrent identical requests share one computation.
+     * A user's entries are dropped when addRating changes their ratings.
+     * @param maxEntries maximum number of cached results; 0 disables the cache
+     * @param ttlMillis how long a result stays valid, in milliseconds
+     */
+    public void setResultCache(int maxEntries, long ttlMillis) {
+        resultCache = maxEntries > 0 ? new RecommendationCache(maxEntries, ttlMillis) : null;
+    }
+
+    /**
+     * Returns the result cache
+     * @return the cache, or null if results are not cached
+     */
+    public RecommendationCache getResultCache() {
+        return resultCache;
+    }
+
+    private void clearResultCache() {
+        if (resultCache != null)
+            resultCache.clear();
+    }
+
+    /**
+     * Sets how many ratings a user needs to get recommendations from the most similar user.
+     * Users with fewer ratings (or unknown users) get the movies with the best Bayesian average
+     * that they have not rated, without any neighbour search.
+     * The threshold is 0 by default, so known users always get the baseline answer from the
+     * most similar user unless a caller opts in.
+     * @param minRatings minimum number of ratings; 0 always uses the most similar user for known users
+     */
+    public void setColdStartThreshold(int minRatings) {
+        coldStartRatings = minRatings;
+        clearResultCache();
+    }
+
+    /**
+     * Switches to off-heap rating storage: the ratings of every user are moved into direct
+     * buffers (see OffHeapRatingStore), leaving one small object per user on the heap.
+     * When called before loadData, each user is moved as soon as its rows have been read,
+     * so only one user's RatingNodes exist at a time.
+     * A user whose ratings change is brought back onto the heap.
+     * @return number of users whose ratings are now off the heap
+     */
+    public int moveRatingsOffHeap() {
+        if (ratingStore == null)
+            ratingStore = new OffHeapRatingStore();
+        int moved = 0;
+        if (users != null) {
+            for (User user : users) {
+                if (user != null && user.moveOffHeap(ratingStore))
+                    moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Switches to compressed rating storage: the RatingsList of every user is replaced by
+     * a byte array of delta and varint coded movie ids and one byte per rating (see CompressedRatings),
+     * about 3 bytes per rating instead of 32 or more. Similarities are computed while decoding.
+     * When called before loadData, each user is compressed as soon as its rows have been read.
+     * A user whose ratings change gets a RatingsList again. Ignored in off-heap mode.
+     * @return number of users whose ratings are now compressed
+     */
+    public int compressRatings() {
+        if (ratingStore != null)
+            return 0;
+        compressed = true;
+        int count = 0;
+        if (users != null) {
+            for (User user : users) {
+                if (user != null && user.compress())
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the store holding the off-heap ratings
+     * @return the store, or null if moveRatingsOffHeap was never called
+     */
+    public OffHeapRatingStore getRatingStore() {
+        return ratingStore;
+    }
+
+    /**
+     * Makes this recommender one shard of a sharded recommender: loadData will only
+     * load the users that hash to this shard (see shardOf). Must be called before loadData.
+     * @param shardIndex index of this shard, from 0 to numShards - 1
+     * @param numShards total number of shards
+     */
+    public void setShard(int shardIndex, int numShards) {
+        if (numShards < 1 || shardIndex < 0 || shardIndex >= numShards)
+            throw new IllegalArgumentException("Invalid shard " + shardIndex + " of " + numShards);
+        this.shardIndex = shardIndex;
+        this.numShards = numShards;
+    }
+
+    /**
+     * Returns the shard that owns the given user
+     * @param userId id of the user
+     * @param numShards number of shards
+     * @return shard index, from 0 to numShards - 1
+     */
+    public static int shardOf(int userId, int numShards) {
+        int h = userId * 0x9E3779B9; // spread consecutive ids over the shards
+        return Math.floorMod(h ^ (h >>> 16), numShards);
+    }
+
+    /**
+     * Returns the user with the given id
+     * @param userid id of the user
+     * @return the user, or null if there is no such user (in this shard)
+     */
+    public User getUser(int userid) {
+        return userid >= 0 && userid < users.length ? users[userid] : null;
+    }
+
+    /**
+     * Finds the k users most similar to the given target user, who does not need to be
+     * one of the users of this recommender (in sharded mode it usually lives in another shard).
+     * Users are ranked like in findMostSimilarUser: higher similarity first, smaller id on ties;
+     * the target itself and users with an undefined similarity are skipped.
+     * @param target the user to compare with
+     * @param k maximum number of neighbours to return
+     * @return up to k neighbours, best first
+     */
+    public Neighbour[] findMostSimilarUsers(User target, int k) {
+        if (k <= 0)
+            return new Neighbour[0];
+        Neighbour[] best = new Neighbour[k];
+        int count = 0;
+        for (int id = 0; id < users.length; id++) {
+            if (users[id] != null && id != target.getId()) {
+                double similarity = target.computeSimilarity(users[id]);
+                if (!Double.isNaN(similarity))
+                    count = Neighbour.offer(best, count, new Neighbour(id, similarity));
+            }
+        }
+        return Arrays.copyOf(best, count);
+    }
+
+    /**
+     * Returns the genre index built from the movies file.
+     * Use getGenres().mask("Comedy", ...) to build a filter for RecommendationOptions.withGenres.
+     * @return genre index, null if no movies were loaded
+     */
+    public GenreIndex getGenres() {
+        return genres;
+    }
+
+    /**
+     * Returns a spliterator over the users, in user id order. It is ORDERED, SIZED and SUBSIZED,
+     * and splits in O(1) by halving a range of user ids, so parallel streams divide the
+     * users evenly. If the array given to setUsers is changed afterwards, call setUsers again.
+     * @return spliterator over the users
+     */
+    public Spliterator<User> userSpliterator() {
+        int[] ids = presentUserIds();
+        return new UserSpliterator(users, ids, 0, ids.length);
+    }
+
+    /** Returns the ids of the non-null users, ascending, building the cache if needed */
+    private int[] presentUserIds() {
+        if (userIds == null) {
+            int n = 0;
+            for (User user : users) {
+                if (user != null)
+                    n++;
+            }
+            int[] ids = new int[n];
+            n = 0;
+            for (int id = 0; id < users.length; id++) {
+                if (users[id] != null)
+                    ids[n++] = id;
+            }
+            userIds = ids;
+        }
+        return userIds;
+    }
+
+    /**
+     * Returns a stream over the users, in user id order
+     * @param parallel true for a parallel stream
+     * @return stream of users
+     */
+    public Stream<User> userStream(boolean parallel) {
+        return StreamSupport.stream(userSpliterator(), parallel);
+    }
+
+    /**
+     * Estimates the memory used by each data structure of this recommender:
+     * users, ratings, titles, indexes and caches (see MemoryReport).
+     * Takes time proportional to the number of ratings.
+     * @return memory report; print it for a table
+     */
+    public MemoryReport getMemoryReport() {
+        return MemoryReport.of(this);
+    }
+
+    /** Returns the movie statistics if they were computed, without computing them */
+    MovieStats movieStats() {
+        return stats;
+    }
+
+    /** Returns the factor model, null if none */
+    FactorModel factorModel() {
+        return model;
+    }
+
+    /** Returns the cached ids of the users, null if not built */
+    int[] userIds() {
+        return userIds;
+    }
+
+    /** Returns the neighbour graph in use, null if none */
+    NeighbourGraph neighbourGraph() {
+        return graph;
+    }
+
+    /** Returns the array of users; index is the user id */
+    User[] users() {
+        return users;
     }
 
 
@@ -120,19 +541,46 @@ public class MovieRecommender {
      * @return the node that corresponds to the most similar user
      */
     public User findMostSimilarUser(int userid) {
+        return findMostSimilarUser(userid, RecommendationOptions.DEFAULT);
+    }
+
+    /**
+     * Finds the most similar user like findMostSimilarUser(userid), but computes
+     * similarity only over the ratings in the time window of the options, weighted by
+     * their time decay (see User.computeSimilarity(User, RecommendationOptions)).
+     * Users are compared with the similarity kernel of the options (Pearson by default).
+     * The time window and decay only apply to Pearson: RecommendationOptions rejects them
+     * together with another kernel, so no option is ever silently ignored.
+     * With Pearson and without a time window or decay, the answer comes from the neighbour graph if one is set.
+     *
+     * @param userid id of the user
+     * @param options time window, decay and similarity kernel
+     * @return the node that corresponds to the most similar user
+     */
+    public User findMostSimilarUser(int userid, RecommendationOptions options) {
+        NeighbourGraph g = graph;
+        SimilarityKernel kernel = options.getSimilarity();
+        if (g != null && !options.usesTime() && kernel == SimilarityKernels.PEARSON) {
+            int best = g.getMostSimilarUser(userid);
+            return best < 0 ? null : users[best];
+        }
         User mostSimilarUser = null;
         double maxSimilarity = -10000;
         User thisUser = users[userid];
+        if (kernel != SimilarityKernels.PEARSON) {
+            int best = kernel.prepare(thisUser, getMovieStats()).mostSimilar(users, userid);
+            return best < 0 ? null : users[best];
+        }
         // Go over all the other users
         for (int id = 0; id < users.length; id++) {
             // going over other users (their ids)
             if (users[id] != null) {
               if (id != userid) { // do not compare with yourself.
-                // Call computeCorrelation from RatingsList class
                   // Update it and user if you find a "better" value
-                  if(thisUser.computeSimilarity(users[id]) > maxSimilarity) { //assign maxSimilarity if the correlation is higher than all previous correlations
+                  double similarity = thisUser.computeSimilarity(users[id], options);
+                  if(similarity > maxSimilarity) { //assign maxSimilarity if the correlation is higher than all previous correlations
                       mostSimilarUser = users[id];
-                      maxSimilarity = thisUser.computeSimilarity(users[id]);
+                      maxSimilarity = similarity;
                   }
               }
             }
@@ -142,6 +590,7 @@ public class MovieRecommender {
     }
 
 
+
     /**
      * * Computes up to num movie recommendations for the user with the given user
      * id and prints these movie titles to the given file. First calls
@@ -154,50 +603,393 @@ public class MovieRecommender {
      *                 Format of the file: one movie title per each line
      */
     public void findRecommendations(int userid, int num, String filename) {
+        findRecommendations(userid, num, filename, RecommendationOptions.DEFAULT);
+    }
+
+    /**
+     * Computes up to num movie recommendations like findRecommendations(userid, num, filename),
+     * but only considers ratings in the time window of the options: the most similar user
+     * is found over the window, and only the movies they rated 5 in the window are recommended
+     * (most recent first). With a genre filter, only movies in the genres are recommended;
+     * the filter is applied to the most similar user's favorites before anything else.
+     * It does not narrow the neighbour search, which compares the user with every other user
+     * as without a filter, so a genre-restricted query costs about as much as an unrestricted one.
+     * Only findModelRecommendations scores fewer movies under a filter.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     * @param options time window and decay
+     */
+    public void findRecommendations(int userid, int num, String filename, RecommendationOptions options) {
+        try (RecommendationSink sink = new TitleFileSink(filename)) {
+            findRecommendations(userid, num, sink, options);
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Computes up to num movie recommendations for the user with the given id
+     * (see findRecommendations(userid, num, filename, options)) and writes them to the sink.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param sink where to write the recommendations
+     * @param options time window, decay and genre filter
+     * @throws IOException if the sink fails
+     */
+    public void findRecommendations(int userid, int num, RecommendationSink sink, RecommendationOptions options) throws IOException {
+        int[] recommended = computeRecommendations(userid, num, options);
+        sink.write(userid, recommended, movies);
+    }
+
+    /**
+     * Computes recommendations for each of the given users and writes them to the sink,
+     * in the order of the ids. Use a BufferedFileSink (possibly inside an AsyncSink) to
+     * write all the results into one file without opening a file per user.
+     * @param userids ids of the users
+     * @param num max number of recommendations per user
+     * @param sink where to write the recommendations
+     * @param options time window, decay and genre filter
+     * @throws IOException if the sink fails
+     */
+    public void findRecommendations(int[] userids, int num, RecommendationSink sink, RecommendationOptions options) throws IOException {
+        for (int userid : userids)
+            findRecommendations(userid, num, sink, options);
+    }
+
+    /**
+     * Computes up to num movie recommendations for the user with the given id:
+     * the favorite movies of the most similar user that this user has not rated yet.
+     * Unknown users, and users with fewer ratings than the cold-start threshold (0 unless set
+     * with setColdStartThreshold), get the unrated movies with the best Bayesian average instead.
+     * Results come from the result cache if one is set (see setResultCache).
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param options time window, decay and genre filter
+     * @return ids of the recommended movies (empty if no similar user was found)
+     */
+    public int[] computeRecommendations(int userid, int num, RecommendationOptions options) {
+        RecommendationCache cache = resultCache;
+        if (cache == null)
+            return recommend(userid, num, options);
+        return cache.get(userid, num, options, () -> recommend(userid, num, options)).clone();
+    }
+
+    /** Computes recommendations like computeRecommendations, without the cache */
+    private int[] recommend(int userid, int num, RecommendationOptions options) {
         // compute similarity between userid and all the other users
         // find the most similar user and recommend movies that the most similar
         // user rated as 5.
         // Recommend only the movies that userid has not seen (has not
         // rated).
-        User mostSimilarUser = findMostSimilarUser(userid);
+        User thisUser = getUser(userid);
+        if (thisUser == null || thisUser.sortedRatings().size() < coldStartRatings) {
+            // too few ratings for a meaningful correlation: recommend the best movies overall
+            return getMovieStats().getTopMovies(num, thisUser, options.getGenreMask(), options.hasGenreFilter() ? genres : null);
+        }
+        User mostSimilarUser = findMostSimilarUser(userid, options);
+        if (mostSimilarUser == null) {
+            System.out.println("No similar user found for user " + userid);
+            return new int[0];
+        }
         // System.out.println("The user with highest Pearson correlation: " + mostSimilarUser.getId());
+        return recommendFrom(thisUser, mostSimilarUser, num, options);
+    }
+
+    /** Returns the favorite movies of the similar user that the user has not rated */
+    private int[] recommendFrom(User thisUser, User mostSimilarUser, int num, RecommendationOptions options) {
         // To recommend movies, get mostSimilarUser's best movies rated as 5,
         // and remove movies this user have seen already.
-        StringBuilder sb = new StringBuilder();
-        int[] favMovies = mostSimilarUser.getFavoriteMovies(num);
+        int[] favMovies = mostSimilarUser.getFavoriteMovies(num, options, genres);
+        int[] seen = thisUser.getMovieIds();
+        int[] recommended = new int[favMovies.length];
+        int count = 0;
         for(int i = 0; i < favMovies.length; i++) {
-            boolean print = true;
-            for(int j = 0; j < users[userid].getMovieIds().length; j++) {
-                if(favMovies[i] == users[userid].getMovieIds()[j]) { //if the user has watched the selected movie, don't print
-                    print = false;
+            boolean keep = true;
+            for(int j = 0; j < seen.length; j++) {
+                if(favMovies[i] == seen[j]) { //if the user has watched the selected movie, don't recommend it
+                    keep = false;
                 }
             }
-            if(print) { //if not watched yet, appends to sb
-                sb.append(movies[favMovies[i]]);
-                sb.append("\n");
+            if(keep) { //if not watched yet, add to the result
+                recommended[count++] = favMovies[i];
             }
         }
-        try (FileWriter file = new FileWriter(filename)) {
-            file.write(sb.toString()); //writes sb into the given file
-        }catch(IOException e) {
-            e.printStackTrace();
-        }
+        return Arrays.copyOf(recommended, count);
     }
 
-    public void printUsers(String filename) {
-        try (PrintWriter pr = new PrintWriter(filename)) {
-            for (User user : users) {
-                if (user != null) {
-                    pr.print("(" + user.getId() + ") ");
-                    for(int i = 0; i < user.getMovieIds().length; i++) { //utilizes the helper method getMovieIds from class User
-                        pr.print(user.getMovieIds()[i] + ":" + user.getRating(user.getMovieIds()[i]) + "; ");
-                    }
-                    pr.println();
+    /**
+     * Finds the most similar user like findMostSimilarUser(userid, options), but stops when the
+     * time budget runs out or the token is cancelled, and returns the best user found so far.
+     * Candidates are evaluated in order of decreasing activity (number of ratings): active users
+     * overlap with the most users, so they are the likeliest to be the best match.
+     * If every candidate is evaluated, the answer is the same as findMostSimilarUser.
+     * For an unknown user id, the result is empty (no user, no candidates).
+     * @param userid id of the user
+     * @param options time window, decay and similarity kernel
+     * @param budgetMillis time budget in milliseconds
+     * @param token cancellation token, or null
+     * @return best user found, with the fraction of the candidates that were evaluated
+     */
+    public NeighbourSearchResult findMostSimilarUser(int userid, RecommendationOptions options, long budgetMillis, CancellationToken token) {
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        User thisUser = getUser(userid);
+        if (thisUser == null)
+            return new NeighbourSearchResult(null, Double.NaN, 0, 0, false); // unknown user: nothing to compare
+        int[] order = usersByActivity();
+        int candidates = order.length - 1;
+        User best = null;
+        double bestSimilarity = Double.NaN;
+        int evaluated = 0;
+        boolean cancelled = false;
+        SimilarityKernel.Query query = options.getSimilarity() == SimilarityKernels.PEARSON ? null
+                : options.getSimilarity().prepare(thisUser, getMovieStats());
+        for (int i = 0; i < order.length; i++) {
+            // the clock is read every 16 candidates
+            if ((evaluated & 15) == 0 && evaluated > 0) {
+                if (token != null && token.isCancelled()) {
+                    cancelled = true;
+                    break;
                 }
+                if (System.nanoTime() - deadline >= 0)
+                    break;
             }
-            pr.flush();
+            int id = order[i];
+            if (id == userid)
+                continue;
+            double similarity = query == null ? thisUser.computeSimilarity(users[id], options) : query.similarity(users[id]);
+            evaluated++;
+            // same answer as findMostSimilarUser: highest similarity, then smallest id
+            if (!Double.isNaN(similarity) && (best == null || Neighbour.isBetter(id, similarity, best.getId(), bestSimilarity))) {
+                best = users[id];
+                bestSimilarity = similarity;
+            }
+        }
+        return new NeighbourSearchResult(best, bestSimilarity, evaluated, candidates, cancelled);
+    }
+
+    /**
+     * Computes up to num recommendations like findRecommendations(userid, num, sink, options), from
+     * the most similar user found within the time budget (see findMostSimilarUser with a budget),
+     * and writes them to the sink. The result cache is not used.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param sink where to write the recommendations
+     * @param options time window, decay and genre filter
+     * @param budgetMillis time budget of the neighbour search in milliseconds
+     * @param token cancellation token, or null
+     * @return the neighbour search, to see how much of it was done
+     * @throws IOException if the sink fails
+     */
+    public NeighbourSearchResult findRecommendations(int userid, int num, RecommendationSink sink, RecommendationOptions options,
+                                                     long budgetMillis, CancellationToken token) throws IOException {
+        User thisUser = getUser(userid);
+        NeighbourSearchResult search;
+        int[] recommended;
+        if (thisUser == null || thisUser.sortedRatings().size() < coldStartRatings) {
+            search = new NeighbourSearchResult(null, Double.NaN, 0, 0, false);
+            recommended = getMovieStats().getTopMovies(num, thisUser, options.getGenreMask(), options.hasGenreFilter() ? genres : null);
+        } else {
+            search = findMostSimilarUser(userid, options, budgetMillis, token);
+            recommended = search.getUser() == null ? new int[0] : recommendFrom(thisUser, search.getUser(), num, options);
+        }
+        sink.write(userid, recommended, movies);
+        return search;
+    }
+
+    /** Returns the ids of the users, most ratings first (smaller id on ties) */
+    private int[] usersByActivity() {
+        int[] order = usersByActivity;
+        if (order == null) {
+            order = rankByActivity();
+            usersByActivity = order;
+        }
+        return order;
+    }
+
+    /** Sorts the ids of the users, most ratings first (smaller id on ties) */
+    private int[] rankByActivity() {
+        int[] ids = presentUserIds();
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            keys[i] = ((long) (Integer.MAX_VALUE - users[ids[i]].numRatings()) << 32) | ids[i];
+        Arrays.sort(keys);
+        int[] order = new int[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            order[i] = (int) keys[i];
+        return order;
+    }
+
+    /**
+     * Returns the table of movie titles
+     * @return titles, null if no movies were loaded
+     */
+    public MovieTitles getMovieTitles() {
+        return movies;
+    }
+
+    /**
+     * Returns the titles of the given movies
+     * @param movieIds ids of the movies
+     * @return titles[i] is the title of movieIds[i] (null for unknown movies)
+     */
+    public String[] getTitles(int[] movieIds) {
+        String[] titles = new String[movieIds.length];
+        for (int i = 0; i < movieIds.length; i++)
+            titles[i] = movies.getTitle(movieIds[i]);
+        return titles;
+    }
+
+    public void printUsers(String filename) {
+        try {
+            exportUsers(filename, UserExportFormat.TEXT);
         } catch (IOException e) {
             System.out.println(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the ratings of every user to a file, formatting blocks of users on all cores
+     * and writing them in user id order through a large direct buffer (see UserExport).
+     * In the TEXT format the file is the one printUsers writes.
+     * @param filename name of the output file
+     * @param format TEXT, or COLUMNAR for a binary file that UserExport.readColumnar reads back
+     * @throws IOException if the file can not be written
+     */
+    public void exportUsers(String filename, UserExportFormat format) throws IOException {
+        UserExport.write(users, filename, format, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Trains a latent-factor model on the loaded ratings, using one SGD thread per core.
+     * The model is then used by findModelRecommendations.
+     * @param numFactors number of latent factors per user/movie
+     * @param epochs number of passes over the ratings
+     * @return the trained model
+     */
+    public FactorModel trainModel(int numFactors, int epochs) {
+        model = FactorModel.train(users, numFactors, epochs, 0);
+        return model;
+    }
+
+    /**
+     * Sets the latent-factor model used by findModelRecommendations
+     * (for instance, one loaded with FactorModel.load).
+     * @param model factor model
+     */
+    public void setFactorModel(FactorModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Computes up to num movie recommendations for the user with the given id
+     * using the latent-factor model instead of the most similar user,
+     * and prints these movie titles to the given file, one title per line.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     */
+    public void findModelRecommendations(int userid, int num, String filename) {
+        findModelRecommendations(userid, num, filename, RecommendationOptions.DEFAULT);
+    }
+
+    /**
+     * Computes up to num movie recommendations with the latent-factor model like
+     * findModelRecommendations(userid, num, filename). With a genre filter in the options,
+     * only the movies of those genres (taken from the genre index) are scored.
+     * A user id without ratings gets the best movies overall, like computeRecommendations.
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param filename name of the file where to output recommended movie titles
+     * @param options genre filter
+     */
+    public void findModelRecommendations(int userid, int num, String filename, RecommendationOptions options) {
+        if (model == null) {
+            System.out.println("No factor model: call trainModel or setFactorModel first");
+            return;
+        }
+        User thisUser = getUser(userid);
+        int[] recommended;
+        if (thisUser == null) // unknown user: the best movies overall, as in computeRecommendations
+            recommended = getMovieStats().getTopMovies(num, null, options.getGenreMask(), options.hasGenreFilter() ? genres : null);
+        else if (options.hasGenreFilter() && genres != null)
+            recommended = model.recommend(thisUser, num, genres.getMovies(options.getGenreMask()));
+        else
+            recommended = model.recommend(thisUser, num);
+        try (RecommendationSink sink = new TitleFileSink(filename)) {
+            sink.write(userid, recommended, movies);
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ------------------------------------------------------
+    /**
+     * Spliterator over the users whose ids are in ids[from, to).
+     */
+    private static class UserSpliterator implements Spliterator<User> {
+        private final User[] users;
+        private final int[] ids;
+        private int from;
+        private final int to;
+
+        UserSpliterator(User[] users, int[] ids, int from, int to) {
+            this.users = users;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean tryAdvance(Consumer<? super User> action) {
+            if (from >= to)
+                return false;
+            action.accept(users[ids[from++]]);
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super User> action) {
+            for (; from < to; from++)
+                action.accept(users[ids[from]]);
+        }
+
+        public Spliterator<User> trySplit() {
+            int mid = (from + to) >>> 1;
+            if (mid <= from)
+                return null;
+            Spliterator<User> prefix = new UserSpliterator(users, ids, from, mid);
+            from = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return to - from;
+        }
+
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | DISTINCT;
+        }
+    }
+
+    /**
+     * The rows of one user read so far, in primitive arrays that are reused from run to run.
+     */
+    private static class RatingRun {
+        int userId;
+        int size;
+        int[] movieIds = new int[256];
+        double[] ratings = new double[256];
+        long[] timestamps = new long[256];
+
+        void add(int movieId, double rating, long timestamp) {
+            if (size == movieIds.length) {
+                movieIds = Arrays.copyOf(movieIds, size * 2);
+                ratings = Arrays.copyOf(ratings, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            movieIds[size] = movieId;
+            ratings[size] = rating;
+            timestamps[size] = timestamp;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package recommender;
+
+import java.util.Arrays;
+
+/** Global statistics of the ratings of each movie: number of ratings, mean rating,
+ *  and a Bayesian average that shrinks the mean of rarely rated movies towards the global mean:
+ *      bayes(m) = (priorWeight * globalMean + sum(m)) / (priorWeight + count(m))
+ *  The prior weight defaults to the average number of ratings per rated movie.
+ *
+ *  Statistics are updated incrementally as ratings are added or changed. The ranking of all rated
+ *  movies by Bayesian average (highest first, then more ratings, then smaller id) is kept in a
+ *  pre-sorted array, so the best movies can be read in O(n) without looking at any user.
+ *  Every change moves the global mean and so every score; rather than re-sorting on each query
+ *  under live updates, the ranking is rebuilt (with a primitive merge sort) only once the changes
+ *  since the last build exceed STALE_FRACTION of all ratings. Until then getTopMovies may lag
+ *  behind by those few ratings; with fewer than 1 / STALE_FRACTION ratings it is always exact.
+ */
+public class MovieStats {
+    private int[] counts; // index is the movieId
+    private double[] sums; // index is the movieId
+    private long totalCount;
+    private double totalSum;
+    private int numMovies; // number of movies with at least one rating
+    private double priorWeight = -1; // negative: use the average number of ratings per movie
+    private int[] ranking; // rated movie ids, best first; null if it must be rebuilt
+    private long changesSinceRanking; // ratings added or changed since the ranking was built
+
+    /** Fraction of all ratings that may change before the ranking is rebuilt */
+    public static final double STALE_FRACTION = 0.001;
+
+    /**
+     * Creates empty statistics
+     * @param maxMovieId largest movie id expected (the arrays grow if needed)
+     */
+    public MovieStats(int maxMovieId) {
+        counts = new int[maxMovieId + 1];
+        sums = new double[maxMovieId + 1];
+    }
+
+    /**
+     * Computes the statistics of all the ratings of the given users in one pass
+     * @param users array of users; null entries are skipped
+     * @return statistics
+     */
+    public static MovieStats of(User[] users) {
+        MovieStats stats = new MovieStats(0);
+        for (User user : users) {
+            if (user == null)
+                continue;
+            UserRatings ratings = user.sortedRatings();
+            int n = ratings.size();
+            if (n > 0)
+                stats.ensureCapacity(ratings.movieIdAt(n - 1)); // ids are sorted
+            for (int i = 0; i < n; i++)
+                stats.add(ratings.movieIdAt(i), ratings.ratingAt(i));
+        }
+        return stats;
+    }
+
+    /**
+     * Adds a new rating
+     * @param movieId id of the rated movie
+     * @param rating the rating
+     */
+    public synchronized void add(int movieId, double rating) {
+        ensureCapacity(movieId);
+        if (counts[movieId]++ == 0)
+            numMovies++;
+        sums[movieId] += rating;
+        totalCount++;
+        totalSum += rating;
+        changesSinceRanking++;
+    }
+
+    /**
+     * Replaces an existing rating of a movie by a new one
+     * @param movieId id of the movie
+     * @param oldRating the rating that was replaced
+     * @param newRating the new rating
+     */
+    public synchronized void update(int movieId, double oldRating, double newRating) {
+        if (movieId >= counts.length || counts[movieId] == 0)
+            throw new IllegalArgumentException("Movie " + movieId + " has no ratings");
+        sums[movieId] += newRating - oldRating;
+        totalSum += newRating - oldRating;
+        changesSinceRanking++;
+    }
+
+    private void ensureCapacity(int movieId) {
+        if (movieId >= counts.length) {
+            int size = Math.max(movieId + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, size);
+            sums = Arrays.copyOf(sums, size);
+        }
+    }
+
+    /**
+     * Returns the number of ratings of a movie
+     * @param movieId id of the movie
+     * @return number of ratings, 0 for an unknown movie
+     */
+    public synchronized int getCount(int movieId) {
+        return movieId >= 0 && movieId < counts.length ? counts[movieId] : 0;
+    }
+
+    /**
+     * Returns the mean rating of a movie
+     * @param movieId id of the movie
+     * @return mean rating, NaN if the movie has no ratings
+     */
+    public synchronized double getMean(int movieId) {
+        int count = getCount(movieId);
+        return count == 0 ? Double.NaN : sums[movieId] / count;
+    }
+
+    /**
+     * Returns the Bayesian average rating of a movie
+     * @param movieId id of the movie
+     * @return Bayesian average; the global mean if the movie has no ratings
+     */
+    public synchronized double getBayesianAverage(int movieId) {
+        double c = getPriorWeight();
+        double sum = getCount(movieId) == 0 ? 0 : sums[movieId];
+        return (c * getGlobalMean() + sum) / (c + getCount(movieId));
+    }
+
+    /** Returns the mean of all ratings, NaN if there are none */
+    public synchronized double getGlobalMean() {
+        return totalCount == 0 ? Double.NaN : totalSum / totalCount;
+    }
+
+    /** Returns the total number of ratings */
+    public synchronized long getNumRatings() {
+        return totalCount;
+    }
+
+    /** Returns the number of movies with at least one rating */
+    public synchronized int getNumMovies() {
+        return numMovies;
+    }
+
+    /** Returns the estimated heap used by the per-movie arrays and the ranking */
+    public synchronized long getBytesUsed() {
+        return MemoryReport.array(counts.length, 4) + MemoryReport.array(sums.length, 8)
+                + (ranking == null ? 0 : MemoryReport.array(ranking.length, 4));
+    }
+
+    /** Returns the number of slots in the per-movie arrays (largest movie id + 1) */
+    synchronized int capacity() {
+        return counts.length;
+    }
+
+    /** Returns the weight of the global mean in the Bayesian average, in number of ratings */
+    public synchronized double getPriorWeight() {
+        if (priorWeight >= 0)
+            return priorWeight;
+        return numMovies == 0 ? 0 : (double) totalCount / numMovies;
+    }
+
+    /**
+     * Sets the weight of the global mean in the Bayesian average
+     * @param priorWeight number of "virtual" ratings at the global mean added to every movie;
+     *                    negative to use the average number of ratings per movie
+     */
+    public synchronized void setPriorWeight(double priorWeight) {
+        this.priorWeight = priorWeight;
+        ranking = null;
+    }
+
+    /**
+     * Returns up to n of the best movies by Bayesian average, best first
+     * @param n max number of movies
+     * @return movie ids
+     */
+    public int[] getTopMovies(int n) {
+        return getTopMovies(n, null, 0, null);
+    }
+
+    /**
+     * Returns up to n of the best movies by Bayesian average that the user has not rated
+     * and that are in the genres of the filter, best first
+     * @param n max number of movies
+     * @param exclude user whose rated movies are skipped, or null
+     * @param genreFilter genre mask (0 accepts all movies)
+     * @param genres genre index for the filter, or null
+     * @return movie ids
+     */
+    public int[] getTopMovies(int n, User exclude, long genreFilter, GenreIndex genres) {
+        int[] ranked = ranking();
+        int[] top = new int[Math.max(0, Math.min(n, ranked.length))];
+        int count = 0;
+        for (int i = 0; i < ranked.length && count < top.length; i++) {
+            int movieId = ranked[i];
+            if (genres != null && !genres.matches(movieId, genreFilter))
+                continue;
+            if (exclude != null && exclude.getRating(movieId) >= 0)
+                continue;
+            top[count++] = movieId;
+        }
+        return count == top.length ? top : Arrays.copyOf(top, count);
+    }
+
+    /** Returns the ranking of all rated movies, rebuilding it once it is too stale */
+    private synchronized int[] ranking() {
+        if (ranking != null && changesSinceRanking <= totalCount * STALE_FRACTION)
+            return ranking;
+        int[] ids = new int[numMovies];
+        double[] scores = new double[counts.length];
+        double c = getPriorWeight();
+        double prior = c == 0 ? 0 : c * getGlobalMean();
+        int n = 0;
+        for (int movieId = 0; movieId < counts.length; movieId++) {
+            if (counts[movieId] > 0) {
+                ids[n++] = movieId;
+                scores[movieId] = (prior + sums[movieId]) / (c + counts[movieId]);
+            }
+        }
+        sort(ids, new int[n], 0, n, scores);
+        ranking = ids;
+        changesSinceRanking = 0;
+        return ranking;
+    }
+
+    /** Merge sort of ids[from, to) in ranking order, using tmp as scratch space */
+    private void sort(int[] ids, int[] tmp, int from, int to, double[] scores) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sort(ids, tmp, from, mid, scores);
+        sort(ids, tmp, mid, to, scores);
+        if (!ranksBefore(ids[mid], ids[mid - 1], scores))
+            return; // already in order
+        System.arraycopy(ids, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to)
+            ids[k++] = ranksBefore(tmp[j], tmp[i], scores) ? tmp[j++] : tmp[i++];
+        while (i < mid)
+            ids[k++] = tmp[i++];
+        while (j < to)
+            ids[k++] = tmp[j++];
+    }
+
+    /** Returns true if movie a comes before movie b: higher score, then more ratings, then smaller id */
+    private boolean ranksBefore(int a, int b, double[] scores) {
+        if (scores[a] != scores[b])
+            return scores[a] > scores[b];
+        if (counts[a] != counts[b])
+            return counts[a] > counts[b];
+        return a < b;
+    }
+}
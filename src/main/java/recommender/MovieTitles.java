@@ -0,0 +1,145 @@
+package recommender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A compact table of movie titles.
+ *  All titles are stored UTF-8 encoded, back to back, in one byte array (the arena);
+ *  offsets[i] is where the i-th title starts and offsets[i + 1] where it ends.
+ *  Movies are numbered by a dense index: their position in the sorted movieIds array.
+ *  Titles are decoded into Strings only when asked for; output code copies the bytes instead.
+ */
+public class MovieTitles {
+    private static final byte[] NULL_TITLE = "null".getBytes(StandardCharsets.US_ASCII);
+
+    final int[] movieIds; // sorted; position is the dense movie index
+    final int[] offsets; // movieIds.length + 1 offsets into arena
+    final byte[] arena; // UTF-8 bytes of all titles
+
+    private MovieTitles(int[] movieIds, int[] offsets, byte[] arena) {
+        this.movieIds = movieIds;
+        this.offsets = offsets;
+        this.arena = arena;
+    }
+
+    /** Returns the number of movies */
+    public int size() {
+        return movieIds.length;
+    }
+
+    /**
+     * Returns the dense index of the given movie
+     * @param movieId id of the movie
+     * @return index in [0, size()), or a negative number if the movie is unknown
+     */
+    public int indexOf(int movieId) {
+        return Arrays.binarySearch(movieIds, movieId);
+    }
+
+    /**
+     * Returns the movie id at the given dense index
+     * @param index dense index
+     * @return movie id
+     */
+    public int getMovieId(int index) {
+        return movieIds[index];
+    }
+
+    /**
+     * Decodes the title of the given movie
+     * @param movieId id of the movie
+     * @return title, or null if the movie is unknown
+     */
+    public String getTitle(int movieId) {
+        int i = indexOf(movieId);
+        if (i < 0)
+            return null;
+        return new String(arena, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the title of the given movie without decoding them.
+     * An unknown movie is written as "null", like appending a missing String title would.
+     * @param movieId id of the movie
+     * @param out where to write
+     * @throws IOException if out fails
+     */
+    public void writeTitle(int movieId, OutputStream out) throws IOException {
+        int i = indexOf(movieId);
+        if (i < 0)
+            out.write(NULL_TITLE);
+        else
+            out.write(arena, offsets[i], offsets[i + 1] - offsets[i]);
+    }
+
+    /** Returns the estimated heap used by the arena and both index arrays, with their array headers */
+    public long getBytesUsed() {
+        return MemoryReport.array(arena.length, 1) + MemoryReport.array(movieIds.length, 4)
+                + MemoryReport.array(offsets.length, 4);
+    }
+
+    // ------------------------------------------------------
+    /**
+     * Collects titles in any order and builds the table.
+     */
+    public static class Builder {
+        private int[] ids = new int[1024];
+        private int[] starts = new int[1024];
+        private int[] lengths = new int[1024];
+        private byte[] bytes = new byte[1 << 16];
+        private int count;
+        private int used;
+
+        /**
+         * Adds (or, if the id was already added, replaces) the title of a movie
+         * @param movieId id of the movie
+         * @param title title of the movie
+         */
+        public Builder add(int movieId, String title) {
+            byte[] utf8 = title.getBytes(StandardCharsets.UTF_8);
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            if (used + utf8.length > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + utf8.length));
+            System.arraycopy(utf8, 0, bytes, used, utf8.length);
+            ids[count] = movieId;
+            starts[count] = used;
+            lengths[count] = utf8.length;
+            count++;
+            used += utf8.length;
+            return this;
+        }
+
+        /** Builds the table; titles are laid out in movie id order */
+        public MovieTitles build() {
+            // sort (movieId, entry) pairs; for a repeated id the last entry wins
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = ((long) ids[i] << 32) | i;
+            Arrays.sort(keys);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (i + 1 == count || (keys[i + 1] >>> 32) != (keys[i] >>> 32))
+                    keys[n++] = keys[i];
+            }
+            int[] movieIds = new int[n];
+            int[] offsets = new int[n + 1];
+            int size = 0;
+            for (int i = 0; i < n; i++)
+                size += lengths[(int) keys[i]];
+            byte[] arena = new byte[size];
+            for (int i = 0; i < n; i++) {
+                int entry = (int) keys[i];
+                movieIds[i] = (int) (keys[i] >>> 32);
+                System.arraycopy(bytes, starts[entry], arena, offsets[i], lengths[entry]);
+                offsets[i + 1] = offsets[i] + lengths[entry];
+            }
+            return new MovieTitles(movieIds, offsets, arena);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package recommender;
+
+/** A user together with their similarity to some target user. */
+public final class Neighbour {
+    private final int userId;
+    private final double similarity;
+
+    /**
+     * @param userId id of the neighbouring user
+     * @param similarity similarity to the target user
+     */
+    public Neighbour(int userId, double similarity) {
+        this.userId = userId;
+        this.similarity = similarity;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    /**
+     * Checks whether this neighbour ranks before the other one: higher similarity first,
+     * and the smaller user id on ties, which is the user findMostSimilarUser would pick.
+     * @param other another neighbour
+     * @return true if this neighbour is better
+     */
+    public boolean isBetterThan(Neighbour other) {
+        return isBetter(userId, similarity, other.userId, other.similarity);
+    }
+
+    /** Same ordering as isBetterThan, on plain values */
+    static boolean isBetter(int userId, double similarity, int otherUserId, double otherSimilarity) {
+        if (similarity != otherSimilarity)
+            return similarity > otherSimilarity;
+        return userId < otherUserId;
+    }
+
+    /**
+     * Inserts a candidate into an array of the best neighbours found so far, best first
+     * @param best the best neighbours so far; the first count slots are used
+     * @param count number of used slots
+     * @param candidate new candidate
+     * @return new number of used slots
+     */
+    static int offer(Neighbour[] best, int count, Neighbour candidate) {
+        if (count == best.length && !candidate.isBetterThan(best[count - 1]))
+            return count;
+        int i = count == best.length ? count - 1 : count;
+        while (i > 0 && candidate.isBetterThan(best[i - 1])) {
+            best[i] = best[i - 1];
+            i--;
+        }
+        best[i] = candidate;
+        return Math.min(count + 1, best.length);
+    }
+
+    public String toString() {
+        return userId + ":" + similarity;
+    }
+}
@@ -0,0 +1,223 @@
+package recommender;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** The k most similar users of every user, computed offline and stored in a binary file
+ *  that is memory-mapped at serving time, so that a neighbour lookup is O(k) reads with
+ *  no correlation work.
+ *
+ *  File layout (big-endian):
+ *      header: int magic "NGRF", int version, int k, int maxUserId, long fingerprint
+ *      one row per user id from 0 to maxUserId, each STRIDE(k) = 4 + 12 * k bytes:
+ *          int count, then k x (int userId, double similarity), best first; unused slots are zero
+ *  The row of a user is found at HEADER_SIZE + userId * stride (a long offset). A single mapping
+ *  can not exceed 2 GB, so the rows are mapped in chunks of whole rows of at most 2 GB each.
+ *  The fingerprint identifies the ratings the graph was built from (see fingerprint);
+ *  a graph whose fingerprint does not match the loaded ratings is stale.
+ */
+public class NeighbourGraph {
+    private static final int MAGIC = 0x4e475246; // "NGRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final MappedByteBuffer[] chunks; // chunk c holds the rows from c * rowsPerChunk
+    private final int rowsPerChunk;
+    private final int k;
+    private final int maxUserId;
+    private final int stride;
+    private final long fingerprint;
+    private final long size;
+
+    private NeighbourGraph(FileChannel channel, int maxChunkBytes) throws IOException {
+        size = channel.size();
+        if (size < HEADER_SIZE)
+            throw new IOException("Not a neighbour graph file");
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+            throw new IOException("Not a neighbour graph file");
+        k = header.getInt(8);
+        maxUserId = header.getInt(12);
+        fingerprint = header.getLong(16);
+        if (k < 1 || maxUserId < 0 || rowSize(k) > maxChunkBytes)
+            throw new IOException("Corrupt neighbour graph header");
+        stride = (int) rowSize(k);
+        if (size != HEADER_SIZE + (long) (maxUserId + 1) * stride)
+            throw new IOException("Truncated neighbour graph file");
+        rowsPerChunk = maxChunkBytes / stride;
+        int numRows = maxUserId + 1;
+        chunks = new MappedByteBuffer[(numRows + rowsPerChunk - 1) / rowsPerChunk];
+        for (int c = 0; c < chunks.length; c++) {
+            int rows = Math.min(rowsPerChunk, numRows - c * rowsPerChunk);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + (long) c * rowsPerChunk * stride, (long) rows * stride);
+        }
+    }
+
+    private static long rowSize(int k) {
+        return 4 + 12L * k;
+    }
+
+    /**
+     * Computes the k most similar users of every user of the recommender (in parallel) and
+     * writes them to a file. Neighbours are ranked like in MovieRecommender.findMostSimilarUser:
+     * higher Pearson similarity first, smaller id on ties, undefined similarities skipped.
+     * @param recommender recommender with the loaded ratings
+     * @param k number of neighbours per user
+     * @param filename name of the graph file
+     * @throws IOException if the file can not be written
+     */
+    public static void build(MovieRecommender recommender, int k, String filename) throws IOException {
+        if (k < 1 || rowSize(k) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("k must be positive and a row must fit in 2 GB: " + k);
+        User[] users = recommender.users();
+        int maxUserId = 0;
+        for (int id = 0; id < users.length; id++) {
+            if (users[id] != null)
+                maxUserId = id;
+        }
+        Neighbour[][] rows = new Neighbour[maxUserId + 1][];
+        recommender.userStream(true).forEach(user -> rows[user.getId()] = recommender.findMostSimilarUsers(user, k));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(k);
+            out.writeInt(maxUserId);
+            out.writeLong(fingerprint(users));
+            for (Neighbour[] row : rows) {
+                int count = row == null ? 0 : row.length;
+                out.writeInt(count);
+                for (int i = 0; i < k; i++) {
+                    out.writeInt(i < count ? row[i].getUserId() : 0);
+                    out.writeDouble(i < count ? row[i].getSimilarity() : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a graph file written by build into memory
+     * @param filename name of the graph file
+     * @return the graph
+     * @throws IOException if the file can not be read or is not a graph file
+     */
+    public static NeighbourGraph open(String filename) throws IOException {
+        return open(filename, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Maps a graph file written by build into memory, in chunks of at most the given size
+     * @param filename name of the graph file
+     * @param maxChunkBytes largest mapping, at least one row; open uses Integer.MAX_VALUE
+     * @return the graph
+     * @throws IOException if the file can not be read or is not a graph file
+     */
+    public static NeighbourGraph open(String filename, int maxChunkBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            // the mappings stay valid after the channel is closed
+            return new NeighbourGraph(channel, maxChunkBytes);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the ratings of the given users: a 64-bit hash of every
+     * (userId, movieId, rating) triple, in user id and movie id order.
+     * @param users array of users; index is the user id
+     * @return fingerprint
+     */
+    public static long fingerprint(User[] users) {
+        long h = 0xcbf29ce484222325L;
+        for (User user : users) {
+            if (user == null)
+                continue;
+            UserRatings ratings = user.sortedRatings();
+            h = mix(h, user.getId());
+            for (int i = 0; i < ratings.size(); i++) {
+                h = mix(h, ratings.movieIdAt(i));
+                h = mix(h, Double.doubleToLongBits(ratings.ratingAt(i)));
+            }
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h = (h ^ value) * 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Checks whether this graph was built from other ratings than the given ones
+     * @param users the ratings being served
+     * @return true if the graph does not match the ratings
+     */
+    public boolean isStale(User[] users) {
+        return fingerprint != fingerprint(users);
+    }
+
+    /** Returns the size of the mapped file */
+    public long getBytesMapped() {
+        return size;
+    }
+
+    /** Returns the number of neighbours stored per user */
+    public int getK() {
+        return k;
+    }
+
+    /** Returns the fingerprint of the ratings the graph was built from */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the number of neighbours stored for a user
+     * @param userId id of the user
+     * @return number of neighbours, 0 for an unknown user
+     */
+    public int getCount(int userId) {
+        if (userId < 0 || userId > maxUserId)
+            return 0;
+        return chunk(userId).getInt(rowOffset(userId));
+    }
+
+    /** Returns the mapped chunk holding the row of a user */
+    private MappedByteBuffer chunk(int userId) {
+        return chunks[userId / rowsPerChunk];
+    }
+
+    /** Returns the offset of the row of a user in its chunk; less than 2 GB by construction */
+    private int rowOffset(int userId) {
+        return (userId % rowsPerChunk) * stride;
+    }
+
+    /**
+     * Returns the most similar user of a user
+     * @param userId id of the user
+     * @return id of the most similar user, or -1 if there is none
+     */
+    public int getMostSimilarUser(int userId) {
+        if (getCount(userId) == 0)
+            return -1;
+        return chunk(userId).getInt(rowOffset(userId) + 4);
+    }
+
+    /**
+     * Returns the stored neighbours of a user
+     * @param userId id of the user
+     * @return neighbours, best first
+     */
+    public Neighbour[] getNeighbours(int userId) {
+        Neighbour[] neighbours = new Neighbour[getCount(userId)];
+        if (neighbours.length == 0)
+            return neighbours;
+        MappedByteBuffer chunk = chunk(userId);
+        int pos = rowOffset(userId) + 4;
+        for (int i = 0; i < neighbours.length; i++, pos += 12)
+            neighbours[i] = new Neighbour(chunk.getInt(pos), chunk.getDouble(pos + 4));
+        return neighbours;
+    }
+}
@@ -0,0 +1,60 @@
+package recommender;
+
+/** The outcome of a neighbour search with a time budget: the best user found before the
+ *  search was stopped, and how much of the candidate set was evaluated.
+ */
+public final class NeighbourSearchResult {
+    private final User user;
+    private final double similarity;
+    private final int evaluated;
+    private final int candidates;
+    private final boolean cancelled;
+
+    NeighbourSearchResult(User user, double similarity, int evaluated, int candidates, boolean cancelled) {
+        this.user = user;
+        this.similarity = similarity;
+        this.evaluated = evaluated;
+        this.candidates = candidates;
+        this.cancelled = cancelled;
+    }
+
+    /** Returns the most similar user found, or null if none was found */
+    public User getUser() {
+        return user;
+    }
+
+    /** Returns the similarity of the user found, NaN if none was found */
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    /** Returns the number of candidates compared with the target user */
+    public int getEvaluated() {
+        return evaluated;
+    }
+
+    /** Returns the number of candidates (all the other users) */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    /** Returns the fraction of the candidates that were evaluated, from 0 to 1 */
+    public double getFractionEvaluated() {
+        return candidates == 0 ? 1 : (double) evaluated / candidates;
+    }
+
+    /** Returns true if every candidate was evaluated, so the answer is exact */
+    public boolean isComplete() {
+        return evaluated == candidates;
+    }
+
+    /** Returns true if the search was stopped by its cancellation token */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String toString() {
+        return (user == null ? "none" : user.getId() + ":" + similarity)
+                + String.format(" (%d of %d candidates, %.1f%%)", evaluated, candidates, 100 * getFractionEvaluated());
+    }
+}
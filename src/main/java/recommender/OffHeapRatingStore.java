@@ -0,0 +1,126 @@
+package recommender;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Stores users' ratings outside of the Java heap, in direct ByteBuffers, so that the garbage
+ *  collector has no per-rating objects to trace no matter how many ratings are loaded.
+ *  Each user's ratings are one contiguous record in a chunk:
+ *      size int movie ids (increasing) followed by size bytes of ratings in half stars (rating * 2).
+ *  That is 5 bytes per rating, against 32+ bytes for a RatingNode.
+ *  The store hands out Slice flyweights (one small heap object per user) that read the record in place.
+ *  Space is only ever appended: a record that is no longer used is not reclaimed until the store is dropped.
+ */
+public class OffHeapRatingStore {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 28; // 256 MB per direct buffer, at most
+    static final int FIRST_CHUNK_SIZE = 1 << 16; // chunks double from 64 KB up to the chunk size
+
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current; // chunk being filled
+    private long bytesUsed;
+    private long ratings;
+
+    /** Creates a store whose direct buffers grow geometrically up to 256 MB */
+    public OffHeapRatingStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a store with the given chunk size. The first chunk is small and each new one is
+     * twice the size of the previous one, up to chunkSize, so a small data set does not reserve
+     * a full chunk of direct memory.
+     * @param chunkSize largest size of a direct buffer in bytes
+     */
+    public OffHeapRatingStore(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Checks whether the ratings can be stored: every rating must be a multiple of 0.5 in [0, 5]
+     * @param ratings ratings sorted by movie id
+     * @return true if add will accept them
+     */
+    static boolean canStore(UserRatings ratings) {
+        for (int i = 0; i < ratings.size(); i++) {
+            double halfStars = ratings.ratingAt(i) * 2;
+            if (halfStars != Math.rint(halfStars) || halfStars < 0 || halfStars > 10)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the ratings into the store
+     * @param ratings ratings sorted by movie id; must pass canStore
+     * @return flyweight that reads the stored copy
+     */
+    synchronized Slice add(UserRatings ratings) {
+        int n = ratings.size();
+        int bytes = 5 * n;
+        ByteBuffer chunk = current;
+        if (chunk == null || chunk.remaining() < bytes) {
+            // records never span chunks: a record larger than a chunk gets a buffer of its own
+            int size = chunk == null ? Math.min(FIRST_CHUNK_SIZE, chunkSize) : (int) Math.min(chunkSize, 2L * chunk.capacity());
+            chunk = ByteBuffer.allocateDirect(Math.max(size, bytes));
+            chunks.add(chunk);
+            current = chunk;
+        }
+        int offset = chunk.position();
+        for (int i = 0; i < n; i++)
+            chunk.putInt(offset + 4 * i, ratings.movieIdAt(i));
+        for (int i = 0; i < n; i++)
+            chunk.put(offset + 4 * n + i, (byte) (ratings.ratingAt(i) * 2));
+        chunk.position(offset + bytes);
+        bytesUsed += bytes;
+        this.ratings += n;
+        return new Slice(chunk, offset, n);
+    }
+
+    /** Returns the number of bytes of records written so far */
+    public synchronized long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    /** Returns the number of bytes of direct memory allocated */
+    public synchronized long getBytesAllocated() {
+        long total = 0;
+        for (ByteBuffer chunk : chunks)
+            total += chunk.capacity();
+        return total;
+    }
+
+    /** Returns the number of ratings stored so far */
+    public synchronized long getNumRatings() {
+        return ratings;
+    }
+
+    // ------------------------------------------------------
+    /**
+     * A flyweight over one user's record. Only uses absolute reads, so it is safe to share between threads.
+     */
+    static final class Slice implements UserRatings {
+        private final ByteBuffer chunk;
+        private final int offset; // position of the movie ids
+        private final int size;
+
+        private Slice(ByteBuffer chunk, int offset, int size) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int movieIdAt(int i) {
+            return chunk.getInt(offset + 4 * i);
+        }
+
+        public double ratingAt(int i) {
+            return chunk.get(offset + 4 * size + i) * 0.5;
+        }
+    }
+}
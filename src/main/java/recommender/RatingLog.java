@@ -0,0 +1,362 @@
+package recommender;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A durable, append-only log of rating changes, so that live updates survive a restart
+ *  without rewriting ratings.csv.
+ *
+ *  File layout (big-endian): int magic "RLOG", int version, then 24-byte records
+ *      int userId, int movieId, double rating, long timestamp
+ *  A record that was only partly written (a crash during the write) is ignored and overwritten.
+ *
+ *  Appends use group commit: append returns once its record is on disk, but a single
+ *  writer thread writes and forces all the records that arrived while the previous force
+ *  was running in one batch, so concurrent writers share the cost of each fsync.
+ *  The change that goes with a record (see append with an apply action) is made once the record
+ *  is durable and in the order of the log, so that replaying the log rebuilds the same state.
+ *
+ *  compact rotates the log (the current file becomes name + ".compacting", new records go to
+ *  a fresh log) and, in the background, merges the rotated records into a new ratings file
+ *  that atomically replaces the old one. At startup the ratings file is loaded, then
+ *  replay applies the ".compacting" file, if a compaction did not finish, and the log.
+ */
+public class RatingLog implements Closeable {
+    private static final int MAGIC = 0x524c4f47; // "RLOG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 24;
+    private static final String COMPACTING = ".compacting";
+
+    private final Path path;
+    private final Object lock = new Object(); // guards pending, the sequence numbers, closed and failure
+    private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 1024); // records not yet written
+    private ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 1024); // the batch being written
+    private long appended; // number of records appended
+    private long durable; // number of records written and forced
+    private boolean closed;
+    private IOException failure;
+
+    private final Object applyLock = new Object(); // guards applied
+    private long applied; // number of records whose change was applied
+
+    private final Object channelLock = new Object(); // guards channel: held while writing a batch or rotating
+    private FileChannel channel;
+
+    private final Thread committer;
+    private final ExecutorService compactor;
+
+    private RatingLog(Path path) throws IOException {
+        this.path = path;
+        channel = openForAppend(path);
+        committer = new Thread(this::commitLoop, "rating-log-committer");
+        committer.setDaemon(true);
+        committer.start();
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "rating-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens a log for appending, creating it if it does not exist.
+     * Records are not replayed: call replay first.
+     * @param filename name of the log file
+     * @return the log
+     * @throws IOException if the file can not be opened or is not a rating log
+     */
+    public static RatingLog open(String filename) throws IOException {
+        return new RatingLog(Paths.get(filename));
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+                size = HEADER_SIZE;
+            } else {
+                checkHeader(channel, path);
+            }
+            // drop a partly written last record
+            long end = HEADER_SIZE + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            channel.truncate(end);
+            channel.position(end);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void checkHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+            throw new IOException("Not a rating log: " + path);
+    }
+
+    /**
+     * Appends a rating change and waits until it is durable
+     * @param userId id of the user
+     * @param movieId id of the movie
+     * @param rating the new rating
+     * @param timestamp time of the rating in seconds since the epoch
+     * @throws IOException if the log is closed or could not be written
+     */
+    public void append(int userId, int movieId, double rating, long timestamp) throws IOException {
+        append(userId, movieId, rating, timestamp, null);
+    }
+
+    /**
+     * Appends a rating change, waits until it is durable, and then runs the action that applies it.
+     * Actions run one at a time and in the order of their records in the log, whatever the order
+     * in which the writers' forces complete. If the record can not be written, the action is not run.
+     * @param userId id of the user
+     * @param movieId id of the movie
+     * @param rating the new rating
+     * @param timestamp time of the rating in seconds since the epoch
+     * @param apply the change to make once the record is durable, or null
+     * @throws IOException if the log is closed or could not be written
+     */
+    public void append(int userId, int movieId, double rating, long timestamp, Runnable apply) throws IOException {
+        long seq;
+        synchronized (lock) {
+            if (failure != null)
+                throw failure;
+            if (closed)
+                throw new IOException("Rating log is closed");
+            if (pending.remaining() < RECORD_SIZE) {
+                ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.putInt(userId).putInt(movieId).putDouble(rating).putLong(timestamp);
+            seq = ++appended;
+            lock.notifyAll();
+            boolean interrupted = false;
+            while (durable < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the record is already queued: wait for it anyway
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (durable < seq)
+                throw failure;
+        }
+        // the records before this one are durable too, so their writers apply them
+        synchronized (applyLock) {
+            boolean interrupted = false;
+            while (applied < seq - 1) {
+                try {
+                    applyLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            try {
+                if (apply != null)
+                    apply.run();
+            } finally {
+                applied = seq;
+                applyLock.notifyAll();
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Writes batches of pending records, one force per batch */
+    private void commitLoop() {
+        while (true) {
+            long batchEnd;
+            synchronized (lock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // only close stops the committer
+                    }
+                }
+                if (pending.position() == 0)
+                    return; // closed and everything is written
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appended;
+            }
+            try {
+                writing.flip();
+                synchronized (channelLock) {
+                    while (writing.hasRemaining())
+                        channel.write(writing);
+                    channel.force(false);
+                }
+                writing.clear();
+                synchronized (lock) {
+                    durable = batchEnd;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a log to a recommender (through addRating), in the order
+     * they were appended. Also applies the records of an unfinished compaction first.
+     * @param filename name of the log file
+     * @param recommender recommender holding the ratings the log was started from
+     * @return number of records applied
+     * @throws IOException if a log can not be read
+     */
+    public static int replay(String filename, MovieRecommender recommender) throws IOException {
+        int count = 0;
+        Path compacting = Paths.get(filename + COMPACTING);
+        if (Files.exists(compacting))
+            count += replay(compacting, recommender);
+        Path log = Paths.get(filename);
+        if (Files.exists(log))
+            count += replay(log, recommender);
+        return count;
+    }
+
+    private static int replay(Path log, MovieRecommender recommender) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log), 1 << 16))) {
+            long size = Files.size(log);
+            if (size < HEADER_SIZE)
+                return 0; // the header was never written
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a rating log: " + log);
+            long records = (size - HEADER_SIZE) / RECORD_SIZE;
+            for (long i = 0; i < records; i++)
+                recommender.addRating(in.readInt(), in.readInt(), in.readDouble(), in.readLong());
+            return (int) records;
+        }
+    }
+
+    /**
+     * Starts compacting the log in the background: the records appended so far are merged
+     * into a new ratings file, which then replaces the given one, and removed from the log.
+     * Appends are not blocked while the new ratings file is written.
+     * @param ratingsFilename ratings file the log was started from (ratings.csv format)
+     * @return future that completes when the compaction is done
+     */
+    public Future<?> compact(String ratingsFilename) {
+        return compactor.submit(() -> {
+            Path compacting = Paths.get(path + COMPACTING);
+            if (!Files.exists(compacting))
+                rotate(compacting);
+            // else: an earlier compaction did not finish; merge its records first
+            MovieRecommender merged = new MovieRecommender();
+            merged.loadRatings(ratingsFilename);
+            replay(compacting, merged);
+            Path ratings = Paths.get(ratingsFilename);
+            Path tmp = Paths.get(ratingsFilename + ".tmp");
+            writeRatings(merged.users(), tmp);
+            Files.move(tmp, ratings, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(compacting);
+            return null;
+        });
+    }
+
+    /** Moves the current log aside and continues in a new, empty one */
+    private void rotate(Path target) throws IOException {
+        synchronized (channelLock) {
+            channel.force(true);
+            channel.close();
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+            channel = openForAppend(path);
+        }
+    }
+
+    /**
+     * Writes ratings in the format of ratings.csv: the number of ratings, then one
+     * userId,movieId,rating,timestamp line per rating, by user id and movie id
+     * @param users array of users; index is the user id
+     * @param file file to write
+     * @throws IOException if the file can not be written
+     */
+    static void writeRatings(User[] users, Path file) throws IOException {
+        long numRatings = 0;
+        for (User user : users) {
+            if (user != null)
+                numRatings += user.sortedRatings().size();
+        }
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(numRatings + "\n");
+            for (User user : users) {
+                if (user == null)
+                    continue;
+                UserRatings ratings = user.sortedRatings();
+                RatingTimeline timeline = user.timeline();
+                RatingTimeline.Window times = timeline == null ? null : timeline.window(Long.MIN_VALUE, Long.MAX_VALUE);
+                int numTimes = times == null ? 0 : times.entries.length;
+                int t = 0;
+                for (int i = 0; i < ratings.size(); i++) {
+                    int movieId = ratings.movieIdAt(i);
+                    // both are sorted by movie id; take the latest time of the movie
+                    long timestamp = 0;
+                    while (t < numTimes && times.movieIdAt(t) < movieId)
+                        t++;
+                    while (t < numTimes && times.movieIdAt(t) == movieId)
+                        timestamp = times.timeAt(t++);
+                    out.write(user.getId() + "," + movieId + "," + ratings.ratingAt(i) + "," + timestamp + "\n");
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Waits for the pending records to be written and closes the log.
+     * A compaction in progress is allowed to finish.
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            committer.join();
+            compactor.shutdown();
+            compactor.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channelLock) {
+            channel.close();
+        }
+        synchronized (lock) {
+            if (failure != null)
+                throw failure;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package recommender;
+
+import java.util.Arrays;
+
+/** The times at which one user rated movies, kept in a time-sorted view so that
+ *  a time-window query only touches the ratings inside the window.
+ *  Timestamps (seconds since the epoch) are stored as int offsets from the user's earliest
+ *  timestamp, next to the movie id: 8 bytes per rating. Ratings themselves are not duplicated here.
+ *  If one user's ratings span more than Integer.MAX_VALUE seconds, the offsets are widened to longs.
+ */
+final class RatingTimeline {
+    private long base = Long.MAX_VALUE; // earliest timestamp
+    private int[] offsets = new int[4]; // timestamp - base; null once widened
+    private long[] wideOffsets; // timestamp - base, used instead of offsets when they do not fit in an int
+    private int[] movieIds = new int[4];
+    private int size;
+    private boolean sorted = true; // whether offsets are in increasing order
+
+    /** The ratings made in a time window (see window) */
+    static final class Window {
+        /** (movieId << 32 | i) for each rating, sorted by movie id; i indexes times */
+        final long[] entries;
+        /** times[i] is the timestamp of the i-th rating of the window, in increasing order */
+        final long[] times;
+
+        Window(long[] entries, long[] times) {
+            this.entries = entries;
+            this.times = times;
+        }
+
+        /** Returns the movie id of entries[k] */
+        int movieIdAt(int k) {
+            return (int) (entries[k] >>> 32);
+        }
+
+        /** Returns the timestamp of entries[k] */
+        long timeAt(int k) {
+            return times[(int) entries[k]];
+        }
+    }
+
+    /**
+     * Records that the given movie was rated at the given time
+     * @param movieId id of the movie
+     * @param timestamp time of the rating in seconds since the epoch
+     */
+    synchronized void add(int movieId, long timestamp) {
+        if (timestamp < base)
+            rebase(timestamp);
+        if (size == movieIds.length)
+            grow(size * 2);
+        append(movieId, timestamp);
+    }
+
+    /**
+     * Records that the given movie was rated again at the given time, replacing its earlier times
+     * @param movieId id of the movie
+     * @param timestamp time of the new rating in seconds since the epoch
+     */
+    synchronized void replace(int movieId, long timestamp) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (movieIds[i] != movieId) {
+                setOffset(n, offsetAt(i));
+                movieIds[n++] = movieIds[i];
+            }
+        }
+        size = n; // removing entries keeps the order
+        add(movieId, timestamp);
+    }
+
+    /**
+     * Records a batch of ratings. Unlike repeated calls to add, the offsets are rebased
+     * at most once and the arrays grow at most once.
+     * @param movieIds ids of the movies
+     * @param timestamps timestamps[i] is the time movieIds[i] was rated
+     * @param n number of ratings in the arrays
+     */
+    synchronized void addAll(int[] movieIds, long[] timestamps, int n) {
+        if (n == 0)
+            return;
+        long earliest = timestamps[0];
+        for (int i = 1; i < n; i++)
+            earliest = Math.min(earliest, timestamps[i]);
+        if (earliest < base)
+            rebase(earliest);
+        if (size + n > this.movieIds.length)
+            grow(size + n);
+        for (int i = 0; i < n; i++)
+            append(movieIds[i], timestamps[i]);
+    }
+
+    private void grow(int capacity) {
+        if (offsets != null)
+            offsets = Arrays.copyOf(offsets, capacity);
+        else
+            wideOffsets = Arrays.copyOf(wideOffsets, capacity);
+        movieIds = Arrays.copyOf(movieIds, capacity);
+    }
+
+    /** Makes the given timestamp the new earliest one, shifting the existing offsets */
+    private void rebase(long timestamp) {
+        long shift = size == 0 ? 0 : base - timestamp;
+        base = timestamp;
+        for (int i = 0; i < size; i++)
+            setOffset(i, offsetAt(i) + shift);
+    }
+
+    /** Stores a rating at the end of the arrays, which must have room for it */
+    private void append(int movieId, long timestamp) {
+        setOffset(size, timestamp - base);
+        movieIds[size] = movieId;
+        if (size > 0 && offsetAt(size) < offsetAt(size - 1))
+            sorted = false;
+        size++;
+    }
+
+    private long offsetAt(int i) {
+        return offsets != null ? offsets[i] : wideOffsets[i];
+    }
+
+    private void setOffset(int i, long offset) {
+        if (offsets != null && offset > Integer.MAX_VALUE)
+            widen();
+        if (offsets != null)
+            offsets[i] = (int) offset;
+        else
+            wideOffsets[i] = offset;
+    }
+
+    /** Switches to long offsets, for ratings spanning more than Integer.MAX_VALUE seconds */
+    private void widen() {
+        wideOffsets = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++)
+            wideOffsets[i] = offsets[i];
+        offsets = null;
+    }
+
+    /** Returns the estimated heap used by this timeline and its arrays */
+    synchronized long getBytesUsed() {
+        return MemoryReport.object(8 + 3 * MemoryReport.REFERENCE + 4 + 1)
+                + (offsets != null ? MemoryReport.array(offsets.length, 4) : MemoryReport.array(wideOffsets.length, 8))
+                + MemoryReport.array(movieIds.length, 4);
+    }
+
+    /** Returns the number of timestamped ratings */
+    synchronized int size() {
+        return size;
+    }
+
+    /** Returns the latest timestamp, or Long.MIN_VALUE if there are none */
+    synchronized long latest() {
+        ensureSorted();
+        return size == 0 ? Long.MIN_VALUE : base + offsetAt(size - 1);
+    }
+
+    /**
+     * Returns the movies rated in the time window [fromTime, toTime] with the time of each rating.
+     * Uses binary search on the time-sorted view, so the cost depends only on the size of the window.
+     * @param fromTime start of the window, inclusive
+     * @param toTime end of the window, inclusive
+     * @return ratings of the window, sorted by movie id
+     */
+    synchronized Window window(long fromTime, long toTime) {
+        ensureSorted();
+        int from = lowerBound(fromTime);
+        int to = toTime == Long.MAX_VALUE ? size : lowerBound(toTime + 1);
+        int n = Math.max(0, to - from);
+        long[] entries = new long[n];
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            entries[i] = ((long) movieIds[from + i] << 32) | i;
+            times[i] = base + offsetAt(from + i);
+        }
+        Arrays.sort(entries);
+        return new Window(entries, times);
+    }
+
+    /** Returns the index of the first rating at or after the given time */
+    private int lowerBound(long time) {
+        if (time <= base)
+            return 0;
+        long target = time - base;
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsetAt(mid) < target)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void ensureSorted() {
+        if (sorted)
+            return;
+        if (offsets != null) {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = ((long) offsets[i] << 32) | movieIds[i];
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i++) {
+                offsets[i] = (int) (keys[i] >>> 32);
+                movieIds[i] = (int) keys[i];
+            }
+        } else {
+            // offsets and movie ids do not fit in one long: sort positions
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            long[] o = wideOffsets;
+            int[] m = movieIds;
+            Arrays.sort(order, (a, b) -> o[a] != o[b] ? Long.compare(o[a], o[b]) : Integer.compare(m[a], m[b]));
+            long[] newOffsets = new long[wideOffsets.length];
+            int[] newMovieIds = new int[movieIds.length];
+            for (int i = 0; i < size; i++) {
+                newOffsets[i] = o[order[i]];
+                newMovieIds[i] = m[order[i]];
+            }
+            wideOffsets = newOffsets;
+            movieIds = newMovieIds;
+        }
+        sorted = true;
+    }
+}
@@ -1,7 +1,13 @@
 package recommender;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A class that stores movie ratings of a user in a custom singly linked list that consists of RatingNode-s.
@@ -196,10 +202,11 @@ public class RatingsList implements Iterable<RatingNode> {
      */
     public RatingsList sublist(int begRating, int endRating) {
         RatingsList res = new RatingsList();
+        RatingNode tail = null; // last node of res, so that each node is linked in O(1)
         RatingNode curr = head;
         while(curr != null) {
             if(curr.getMovieRating() >= begRating && curr.getMovieRating() <= endRating) { //if in between assigned parameter, append
-                res.append(curr.getMovieId(), curr.getMovieRating());
+                tail = res.linkAfter(tail, curr.getMovieId(), curr.getMovieRating());
             }
             curr = curr.next();
         }
@@ -227,10 +234,11 @@ public class RatingsList implements Iterable<RatingNode> {
      */
     public RatingsList getNBestRankedMovies(int n) {
         RatingsList result = new RatingsList();
+        RatingNode tail = null;
         RatingNode curr = head;
         int i = 0;
         while(curr != null && i < n) {
-            result.append(curr.getMovieId(), curr.getMovieRating());
+            tail = result.linkAfter(tail, curr.getMovieId(), curr.getMovieRating());
             curr = curr.next();
             i++;
         }
@@ -249,13 +257,98 @@ public class RatingsList implements Iterable<RatingNode> {
      */
     public RatingsList reverse(RatingNode head) {
         RatingsList r = new RatingsList();
-        if(head != null) {
-            r = reverse(head.next()); //recursive line (appends node from the end)
-            r.append(head.getMovieId(), head.getMovieRating());
+        // walking forward and adding every node at the front of r reverses the order,
+        // in one pass and without recursion
+        for (RatingNode curr = head; curr != null; curr = curr.next()) {
+            RatingNode node = new RatingNode(curr.getMovieId(), curr.getMovieRating());
+            node.setNext(r.head);
+            r.head = node;
         }
         return r;
     }
 
+    /**
+     * Builds a list in the given order in one pass, without searching for insert positions
+     * @param movieIds movie ids
+     * @param ratings ratings[i] is the rating of movieIds[i]
+     * @param order positions in the arrays, in list order (highest rating first)
+     * @return new list
+     */
+    static RatingsList ofRanked(int[] movieIds, double[] ratings, int[] order) {
+        RatingsList list = new RatingsList();
+        RatingNode tail = null;
+        for (int i : order)
+            tail = list.linkAfter(tail, movieIds[i], ratings[i]);
+        return list;
+    }
+
+    /**
+     * Creates a node and links it after the given tail of this list
+     * @param tail last node of this list, or null if the list is empty
+     * @param movieId movie id
+     * @param rating rating of the movie
+     * @return the new tail
+     */
+    private RatingNode linkAfter(RatingNode tail, int movieId, double rating) {
+        RatingNode node = new RatingNode(movieId, rating);
+        if (tail == null)
+            head = node;
+        else
+            tail.setNext(node);
+        return node;
+    }
+
+    /**
+     * Returns a view of the first n nodes of this list (the n best ranked movies),
+     * without copying them. The view reflects later changes to the list.
+     * @param n the maximum number of nodes in the view
+     * @return view over at most n nodes, from the head
+     */
+    public Iterable<RatingNode> prefixView(int n) {
+        return () -> new ViewIterator(head, n, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns a view of the nodes with a rating from begRating to endRating, inclusive,
+     * without copying them. Since the list is sorted by rating, iteration stops at the
+     * first node rated below begRating.
+     * @param begRating lower bound for ratings in the view, inclusive
+     * @param endRating upper bound for ratings in the view, inclusive
+     * @return view over the nodes rated in the range, highest rating first
+     */
+    public Iterable<RatingNode> ratingRangeView(double begRating, double endRating) {
+        return () -> new ViewIterator(head, Integer.MAX_VALUE, begRating, endRating);
+    }
+
+    /**
+     * Returns a view of this list in reverse order (lowest rated movies first), without
+     * copying the nodes. A singly linked list can only be walked forward:
+     * - forEach reverses the links in place, visits the nodes and restores the links (also if
+     *   the action throws), so it allocates nothing; the action must not read or modify this list;
+     * - an iterator can be abandoned half way, so it can not leave the links reversed: it first
+     *   collects references to the nodes (one pass, O(n) space), then returns them backwards.
+     * @return reversed view
+     */
+    public Iterable<RatingNode> reversedView() {
+        return new ReversedView();
+    }
+
+    /**
+     * Reverses the links of the nodes from the given one to the end of the list
+     * @param node first node
+     * @return the last node, which is now the first
+     */
+    private static RatingNode reverseLinks(RatingNode node) {
+        RatingNode reversed = null;
+        while (node != null) {
+            RatingNode next = node.next();
+            node.setNext(reversed);
+            reversed = node;
+            node = next;
+        }
+        return reversed;
+    }
+
     public int[] getMovieIds() { //method for printUsers in MovieRecommender
         RatingNode curr = head;
         int n = 0;
@@ -281,6 +374,34 @@ public class RatingsList implements Iterable<RatingNode> {
         return new RatingsListIterator();
     }
 
+    /**
+     * Returns a spliterator over the nodes of the list, from the head. It is ORDERED, SIZED
+     * and SUBSIZED: the size is counted when the traversal starts (late-binding), and
+     * each split hands out the first half of the remaining nodes without copying them.
+     * Finding the split point walks half of the remaining nodes, so splitting a list of n nodes
+     * all the way down, as a parallel stream does, follows O(n log n) links.
+     * @return spliterator
+     */
+    public Spliterator<RatingNode> spliterator() {
+        return new RatingsSpliterator(null, -1);
+    }
+
+    /**
+     * Returns a sequential stream over the nodes of the list
+     * @return stream of nodes, highest rating first
+     */
+    public Stream<RatingNode> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over the nodes of the list
+     * @return stream of nodes, highest rating first
+     */
+    public Stream<RatingNode> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
     // ------------------------------------------------------
     /**
      * Inner class, RatingsListIterator
@@ -306,18 +427,164 @@ public class RatingsList implements Iterable<RatingNode> {
         /**
          * Returns the "next" node and advances the iterator
          * @return next node
+         * @throws NoSuchElementException if there is no next node
          */
         public RatingNode next() {
-            if (!hasNext()) {
-                System.out.println("No next node. ");
-                return null;
-            }
+            if (!hasNext())
+                throw new NoSuchElementException("No next node");
             RatingNode oldNode = curr;
             curr = curr.next();
             return oldNode;
         }
     }
 
+    /**
+     * Spliterator over a run of consecutive nodes: size nodes starting at curr.
+     * The list is only walked to find split points, so a split costs O(size / 2).
+     */
+    private class RatingsSpliterator implements Spliterator<RatingNode> {
+        private RatingNode curr;
+        private long size; // negative until bound to the list
+
+        RatingsSpliterator(RatingNode start, long size) {
+            this.curr = start;
+            this.size = size;
+        }
+
+        /** Binds to the list on first use, so that changes before the traversal are seen */
+        private void bind() {
+            if (size < 0) {
+                curr = head;
+                size = 0;
+                for (RatingNode node = head; node != null; node = node.next())
+                    size++;
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super RatingNode> action) {
+            bind();
+            if (size == 0)
+                return false;
+            RatingNode node = curr;
+            curr = curr.next();
+            size--;
+            action.accept(node);
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super RatingNode> action) {
+            bind();
+            RatingNode node = curr;
+            long n = size;
+            curr = null;
+            size = 0;
+            for (; n > 0; n--) {
+                action.accept(node);
+                node = node.next();
+            }
+        }
+
+        public Spliterator<RatingNode> trySplit() {
+            bind();
+            long half = size >>> 1;
+            if (half == 0)
+                return null;
+            RatingNode start = curr;
+            for (long i = 0; i < half; i++)
+                curr = curr.next();
+            size -= half;
+            return new RatingsSpliterator(start, half);
+        }
+
+        public long estimateSize() {
+            bind();
+            return size;
+        }
+
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /**
+     * Iterator over the nodes of a view: at most limit nodes rated in [minRating, maxRating],
+     * from the given node on. The list is sorted by rating, so nodes rated above maxRating
+     * are skipped and the first node rated below minRating ends the view.
+     */
+    private static class ViewIterator implements Iterator<RatingNode> {
+        private final double minRating;
+        private final double maxRating;
+        private RatingNode curr;
+        private int remaining;
+
+        ViewIterator(RatingNode start, int limit, double minRating, double maxRating) {
+            this.minRating = minRating;
+            this.maxRating = maxRating;
+            this.remaining = limit;
+            curr = start;
+            while (curr != null && curr.getMovieRating() > maxRating)
+                curr = curr.next();
+        }
+
+        public boolean hasNext() {
+            return curr != null && remaining > 0 && curr.getMovieRating() >= minRating;
+        }
+
+        public RatingNode next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            RatingNode node = curr;
+            remaining--;
+            curr = curr.next();
+            return node;
+        }
+    }
+
+    /**
+     * The view returned by reversedView.
+     */
+    private class ReversedView implements Iterable<RatingNode> {
+        public Iterator<RatingNode> iterator() {
+            return new ReversedIterator();
+        }
+
+        public void forEach(Consumer<? super RatingNode> action) {
+            RatingNode tail = reverseLinks(head);
+            try {
+                for (RatingNode node = tail; node != null; node = node.next())
+                    action.accept(node);
+            } finally {
+                reverseLinks(tail); // head is the last node of the reversed links, so it is the head again
+            }
+        }
+    }
+
+    /**
+     * Iterator over the nodes of the list from the tail to the head.
+     */
+    private class ReversedIterator implements Iterator<RatingNode> {
+        private RatingNode[] nodes = new RatingNode[16];
+        private int index;
+
+        ReversedIterator() {
+            for (RatingNode curr = head; curr != null; curr = curr.next()) {
+                if (index == nodes.length)
+                    nodes = Arrays.copyOf(nodes, index * 2);
+                nodes[index++] = curr;
+            }
+        }
+
+        public boolean hasNext() {
+            return index > 0;
+        }
+
+        public RatingNode next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return nodes[--index];
+        }
+    }
+
     // You can use this method to check if your RatingsList works correctly, before you are ready to run the tests
     public static void main(String[] args) {
         /*
@@ -0,0 +1,249 @@
+package recommender;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/** A cache of recommendation results keyed by (userId, num, options), with a time to live
+ *  and a maximum number of entries (the least recently used entry is evicted first).
+ *
+ *  Concurrent identical requests are coalesced ("single flight"): the first one computes the
+ *  result while the others wait for it, so a burst of the same request costs one computation.
+ *  invalidate(userId) drops every entry of a user, and is called when their ratings change.
+ *  A change of one user can also change the recommendations of users who have them as their
+ *  most similar user; those entries are only refreshed when their time to live runs out.
+ */
+public class RecommendationCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    // guarded by this; iteration order is least recently used first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Set<Key>> keysByUser = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache
+     * @param maxEntries maximum number of results kept
+     * @param ttlMillis how long a result stays valid, in milliseconds
+     */
+    public RecommendationCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Returns the cached result of a request, computing it if it is missing or expired.
+     * If the same request is being computed by another thread, waits for that result instead.
+     * @param userId id of the user
+     * @param num max number of recommendations
+     * @param options recommendation options
+     * @param compute computes the result
+     * @return the result, shared with other callers: do not modify it
+     */
+    public int[] get(int userId, int num, RecommendationOptions options, Supplier<int[]> compute) {
+        Key key = new Key(userId, num, options);
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                keysByUser.computeIfAbsent(userId, id -> new HashSet<>()).add(key);
+                evict();
+                owner = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (owner) {
+            try {
+                int[] result = compute.get();
+                entry.complete(result, System.nanoTime() + ttlNanos);
+                return result;
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    if (entries.get(key) == entry)
+                        remove(key); // do not cache failures
+                }
+                entry.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return entry.await();
+    }
+
+    /**
+     * Drops all the cached results of a user
+     * @param userId id of the user
+     */
+    public synchronized void invalidate(int userId) {
+        Set<Key> keys = keysByUser.remove(userId);
+        if (keys != null) {
+            for (Key key : keys)
+                entries.remove(key);
+        }
+    }
+
+    /** Drops all the cached results */
+    public synchronized void clear() {
+        entries.clear();
+        keysByUser.clear();
+    }
+
+    /** Returns the number of cached results, including ones being computed */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Returns the number of requests answered from the cache (or by waiting for another request) */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Returns the number of requests that had to be computed */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Returns the maximum number of entries */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the estimated heap used by the cache: the map nodes, keys, entries, futures and
+     * result arrays, and the per-user key sets
+     */
+    synchronized long getBytesUsed() {
+        int ref = MemoryReport.REFERENCE;
+        long bytes = MemoryReport.array(tableSize(entries.size()), ref);
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            bytes += MemoryReport.object(4 + 5 * ref) // LinkedHashMap node: hash, key, value, next, before, after
+                    + MemoryReport.object(8 + ref) // Key
+                    + MemoryReport.object(8 + ref) // Entry
+                    + MemoryReport.object(2 * ref); // CompletableFuture
+            CompletableFuture<int[]> result = e.getValue().result;
+            if (result.isDone() && !result.isCompletedExceptionally())
+                bytes += MemoryReport.array(result.join().length, 4);
+        }
+        bytes += MemoryReport.array(tableSize(keysByUser.size()), ref);
+        for (Set<Key> keys : keysByUser.values()) {
+            bytes += MemoryReport.object(4 + 3 * ref) // node of keysByUser
+                    + MemoryReport.object(4) // Integer key
+                    + MemoryReport.object(ref) + MemoryReport.object(4 * ref + 16) // HashSet and its HashMap
+                    + MemoryReport.array(tableSize(keys.size()), ref)
+                    + keys.size() * MemoryReport.object(4 + 3 * ref); // one node per key
+        }
+        return bytes;
+    }
+
+    /** Length of the table of a HashMap holding n entries at the default load factor */
+    private static int tableSize(int n) {
+        int size = 16;
+        while (size * 3 / 4 < n)
+            size *= 2;
+        return size;
+    }
+
+    private void remove(Key key) {
+        entries.remove(key);
+        Set<Key> keys = keysByUser.get(key.userId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty())
+                keysByUser.remove(key.userId);
+        }
+    }
+
+    /** Removes least recently used entries until the cache fits */
+    private void evict() {
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            Key key = it.next();
+            it.remove();
+            Set<Key> keys = keysByUser.get(key.userId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    keysByUser.remove(key.userId);
+            }
+        }
+    }
+
+    // ------------------------------------------------------
+    /**
+     * The key of a request.
+     */
+    private static final class Key {
+        final int userId;
+        final int num;
+        final RecommendationOptions options;
+
+        Key(int userId, int num, RecommendationOptions options) {
+            this.userId = userId;
+            this.num = num;
+            this.options = options;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return userId == other.userId && num == other.num && options.equals(other.options);
+        }
+
+        public int hashCode() {
+            return (userId * 31 + num) * 31 + options.hashCode();
+        }
+    }
+
+    /**
+     * A cached result, or one being computed.
+     */
+    private static final class Entry {
+        final CompletableFuture<int[]> result = new CompletableFuture<>();
+        volatile long expiresAt = Long.MAX_VALUE; // never expires while being computed
+
+        void complete(int[] value, long expiresAt) {
+            this.expiresAt = expiresAt;
+            result.complete(value);
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0 && expiresAt != Long.MAX_VALUE;
+        }
+
+        int[] await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return result.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException)
+                            throw (RuntimeException) cause;
+                        if (cause instanceof Error)
+                            throw (Error) cause;
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package recommender;
+
+import java.util.Objects;
+
+/** Options for computing similarity and recommendations.
+ *  Instances are immutable: every "with" method returns a modified copy.
+ *  - time window: only ratings made in [fromTime, toTime] (seconds since the epoch) are considered;
+ *  - decay: each rating is weighted by 0.5^((referenceTime - t) / halfLife),
+ *    so recent ratings count more than old ones;
+ *  - genres: only movies of any of the genres in the mask (see GenreIndex) are recommended;
+ *  - similarity: the kernel comparing users (see SimilarityKernels), Pearson by default.
+ *    The time window and decay only apply to Pearson, so they can not be combined with another kernel.
+ */
+public final class RecommendationOptions {
+    /** No window, no decay and no genre filter: the original behaviour. */
+    public static final RecommendationOptions DEFAULT =
+            new RecommendationOptions(Long.MIN_VALUE, Long.MAX_VALUE, 0, 0, 0, SimilarityKernels.PEARSON);
+
+    private final long fromTime;
+    private final long toTime;
+    private final double halfLife; // in seconds; 0 means no decay
+    private final long referenceTime;
+    private final long genreMask; // 0 means all genres
+    private final SimilarityKernel similarity;
+
+    private RecommendationOptions(long fromTime, long toTime, double halfLife, long referenceTime, long genreMask,
+                                  SimilarityKernel similarity) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.halfLife = halfLife;
+        this.referenceTime = referenceTime;
+        this.genreMask = genreMask;
+        this.similarity = similarity;
+        if (usesTime() && similarity != SimilarityKernels.PEARSON)
+            throw new IllegalArgumentException("Time window and decay need the Pearson kernel, not " + similarity.name());
+    }
+
+    /**
+     * Returns a copy of these options that only considers ratings made in the given time window
+     * @param fromTime start of the window in seconds since the epoch, inclusive
+     * @param toTime end of the window in seconds since the epoch, inclusive
+     * @return new options
+     */
+    public RecommendationOptions withTimeWindow(long fromTime, long toTime) {
+        if (fromTime > toTime)
+            throw new IllegalArgumentException("Empty time window: " + fromTime + " > " + toTime);
+        return new RecommendationOptions(fromTime, toTime, halfLife, referenceTime, genreMask, similarity);
+    }
+
+    /**
+     * Returns a copy of these options that weighs ratings with exponential time decay
+     * @param halfLife number of seconds after which the weight of a rating halves
+     * @param referenceTime "now", in seconds since the epoch
+     * @return new options
+     */
+    public RecommendationOptions withDecay(double halfLife, long referenceTime) {
+        if (!(halfLife > 0))
+            throw new IllegalArgumentException("Half-life must be positive: " + halfLife);
+        return new RecommendationOptions(fromTime, toTime, halfLife, referenceTime, genreMask, similarity);
+    }
+
+    /**
+     * Returns a copy of these options that only recommends movies of the given genres
+     * @param genreMask genres to accept, from GenreIndex.mask; 0 accepts all genres
+     * @return new options
+     */
+    public RecommendationOptions withGenres(long genreMask) {
+        return new RecommendationOptions(fromTime, toTime, halfLife, referenceTime, genreMask, similarity);
+    }
+
+    /**
+     * Returns a copy of these options that compares users with the given kernel
+     * @param similarity kernel, from SimilarityKernels
+     * @return new options
+     */
+    public RecommendationOptions withSimilarity(SimilarityKernel similarity) {
+        return new RecommendationOptions(fromTime, toTime, halfLife, referenceTime, genreMask,
+                Objects.requireNonNull(similarity, "similarity"));
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+    public double getHalfLife() {
+        return halfLife;
+    }
+
+    public long getReferenceTime() {
+        return referenceTime;
+    }
+
+    public long getGenreMask() {
+        return genreMask;
+    }
+
+    public SimilarityKernel getSimilarity() {
+        return similarity;
+    }
+
+    /** Returns true if recommendations are restricted to some genres */
+    public boolean hasGenreFilter() {
+        return genreMask != 0;
+    }
+
+    /** Returns true if only a time window of the ratings is considered */
+    public boolean hasTimeWindow() {
+        return fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE;
+    }
+
+    /** Returns true if ratings are weighted by their age */
+    public boolean isDecayed() {
+        return halfLife > 0;
+    }
+
+    /** Returns true if timestamps are needed to apply these options */
+    public boolean usesTime() {
+        return hasTimeWindow() || isDecayed();
+    }
+
+    /**
+     * Weight of a rating made at the given time
+     * @param timestamp time of the rating in seconds since the epoch
+     * @return 1 without decay, otherwise a value in (0, 1] for ratings made before the reference time
+     */
+    double weight(long timestamp) {
+        if (!isDecayed())
+            return 1;
+        return Math.pow(0.5, (referenceTime - timestamp) / halfLife);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RecommendationOptions))
+            return false;
+        RecommendationOptions other = (RecommendationOptions) o;
+        return fromTime == other.fromTime && toTime == other.toTime
+                && Double.compare(halfLife, other.halfLife) == 0 && referenceTime == other.referenceTime
+                && genreMask == other.genreMask && similarity == other.similarity;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fromTime, toTime, halfLife, referenceTime, genreMask, similarity);
+    }
+
+    @Override
+    public String toString() {
+        return "RecommendationOptions[from=" + fromTime + ", to=" + toTime
+                + ", halfLife=" + halfLife + ", referenceTime=" + referenceTime
+                + ", genres=" + Long.toHexString(genreMask)
+                + ", similarity=" + similarity.name() + "]";
+    }
+}
@@ -0,0 +1,30 @@
+package recommender;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Where computed recommendations are written to.
+ *  MovieRecommender.findRecommendations hands each user's recommendations to a sink;
+ *  the sink decides on the file layout, the format and when bytes actually hit the disk.
+ *  Implementations:
+ *  - TitleFileSink: one file per call with one title per line (the original output format);
+ *  - BufferedFileSink: many users' results in one file, through a large buffer, in any SinkFormat;
+ *  - AsyncSink: hands the results to another sink on a background writer thread.
+ */
+public interface RecommendationSink extends Closeable {
+
+    /**
+     * Writes the recommendations of one user
+     * @param userId id of the user
+     * @param movieIds ids of the recommended movies, best first
+     * @param titles table of movie titles
+     * @throws IOException if the recommendations can not be written
+     */
+    void write(int userId, int[] movieIds, MovieTitles titles) throws IOException;
+
+    /**
+     * Flushes buffered output and releases the resources of the sink
+     * @throws IOException if buffered output can not be written
+     */
+    void close() throws IOException;
+}
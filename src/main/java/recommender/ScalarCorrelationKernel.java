@@ -0,0 +1,37 @@
+package recommender;
+
+/** The portable CorrelationKernel: plain loops, one element at a time. */
+final class ScalarCorrelationKernel implements CorrelationKernel {
+
+    public double pearson(double[] x, double[] y, int n) {
+        double sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        for (int i = 0; i < n; i++) {
+            double a = x[i];
+            double b = y[i];
+            sumx += a;
+            sumy += b;
+            sumx2 += a * a;
+            sumy2 += b * b;
+            sumxy += a * b;
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+
+    public double pearsonDense(double[] a, int aOff, double[] b, int bOff, int len) {
+        int n = 0;
+        double sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        for (int i = 0; i < len; i++) {
+            double x = a[aOff + i];
+            double y = b[bOff + i];
+            if (x != 0 && y != 0) {
+                n++;
+                sumx += x;
+                sumy += y;
+                sumx2 += x * x;
+                sumy2 += y * y;
+                sumxy += x * y;
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+}
@@ -0,0 +1,111 @@
+package recommender;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Runs load and query workloads on synthetic data sets of growing size (see DatasetGenerator)
+ *  and reports how time and memory grow.
+ *  For every scale it measures the time of loadData, the heap used by the loaded data, and the
+ *  average time of findMostSimilarUser and computeRecommendations for random users.
+ *  Results are printed as a table and as bar charts, with the growth exponent between consecutive
+ *  scales (1 means linear, 2 quadratic), and written to scaling.csv in the output directory.
+ *  Usage: ScalingHarness [outputDir numRatings,numRatings,... queries]
+ *  (run with a large -Xmx for the bigger scales)
+ */
+public class ScalingHarness {
+    private static final int RATINGS_PER_USER = 150; // about the average of the real data
+    private static final int RATINGS_PER_MOVIE = 11;
+    private static final int BAR_WIDTH = 50;
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "scaling");
+        String[] scales = (args.length > 1 ? args[1] : "10000,100000,1000000").split(",");
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        dir.mkdirs();
+
+        long[] ratings = new long[scales.length];
+        double[][] results = new double[scales.length][]; // load ms, heap MB, similar ms, recommend ms
+        for (int s = 0; s < scales.length; s++) {
+            ratings[s] = Long.parseLong(scales[s].trim());
+            results[s] = run(dir, ratings[s], queries);
+            System.out.printf("%,d ratings: load %.0f ms, heap %.1f MB, findMostSimilarUser %.2f ms, recommendations %.2f ms%n",
+                    ratings[s], results[s][0], results[s][1], results[s][2], results[s][3]);
+        }
+
+        String[] metrics = {"loadData (ms)", "heap after load (MB)", "findMostSimilarUser (ms)", "computeRecommendations (ms)"};
+        for (int m = 0; m < metrics.length; m++)
+            chart(metrics[m], ratings, results, m);
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "scaling.csv")), StandardCharsets.UTF_8))) {
+            out.println("ratings,loadMs,heapMb,mostSimilarMs,recommendMs");
+            for (int s = 0; s < scales.length; s++)
+                out.printf("%d,%.3f,%.3f,%.3f,%.3f%n", ratings[s], results[s][0], results[s][1], results[s][2], results[s][3]);
+        }
+    }
+
+    /** Generates a data set with about numRatings ratings and measures it */
+    private static double[] run(File dir, long numRatings, int queries) throws IOException {
+        int numUsers = (int) Math.max(50, numRatings / RATINGS_PER_USER);
+        int numMovies = (int) Math.max(500, numRatings / RATINGS_PER_MOVIE);
+        String movies = new File(dir, "movies-" + numRatings + ".csv").getPath();
+        String ratings = new File(dir, "ratings-" + numRatings + ".csv").getPath();
+        if (!new File(ratings).exists()) {
+            DatasetGenerator generator = new DatasetGenerator().setNumUsers(numUsers).setNumMovies(numMovies).setNumRatings(numRatings);
+            generator.writeMovies(movies);
+            generator.writeRatings(ratings);
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(movies, ratings);
+        double loadMs = (System.nanoTime() - start) / 1e6;
+        double heapMb = (usedHeap() - heapBefore) / (1024.0 * 1024);
+
+        Random random = new Random(1);
+        int[] userIds = new int[queries];
+        for (int q = 0; q < queries; q++)
+            userIds[q] = 1 + random.nextInt(numUsers);
+        for (int userId : userIds)
+            recommender.findMostSimilarUser(userId); // warm up the JIT
+        start = System.nanoTime();
+        for (int userId : userIds)
+            recommender.findMostSimilarUser(userId);
+        double similarMs = (System.nanoTime() - start) / 1e6 / queries;
+        start = System.nanoTime();
+        for (int userId : userIds)
+            recommender.computeRecommendations(userId, 10, RecommendationOptions.DEFAULT);
+        double recommendMs = (System.nanoTime() - start) / 1e6 / queries;
+        return new double[] {loadMs, heapMb, similarMs, recommendMs};
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Prints one metric as horizontal bars, with the growth exponent from the previous scale */
+    private static void chart(String metric, long[] ratings, double[][] results, int m) {
+        double max = 0;
+        for (double[] result : results)
+            max = Math.max(max, result[m]);
+        System.out.println();
+        System.out.println(metric);
+        for (int s = 0; s < ratings.length; s++) {
+            double value = results[s][m];
+            int width = max <= 0 ? 0 : (int) Math.round(value / max * BAR_WIDTH);
+            StringBuilder bar = new StringBuilder();
+            for (int i = 0; i < width; i++)
+                bar.append('#');
+            String growth = "";
+            if (s > 0 && results[s - 1][m] > 0 && value > 0) {
+                double exponent = Math.log(value / results[s - 1][m]) / Math.log((double) ratings[s] / ratings[s - 1]);
+                growth = String.format("  (x n^%.2f)", exponent);
+            }
+            System.out.printf("%,14d | %-" + BAR_WIDTH + "s %.2f%s%n", ratings[s], bar, value, growth);
+        }
+    }
+}
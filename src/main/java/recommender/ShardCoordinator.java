@@ -0,0 +1,370 @@
+package recommender;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** The front end of a sharded recommender. Users are hash-partitioned over several
+ *  ShardWorker processes (see MovieRecommender.shardOf); to answer a query the coordinator
+ *  fetches the target user's ratings from the shard that owns them, sends them to every shard,
+ *  and merges the best neighbours each shard returns (scatter-gather).
+ *  The answers are the same as those of a single MovieRecommender holding all users, queried with
+ *  RecommendationOptions.DEFAULT and the default cold-start threshold of 0, for users that exist:
+ *  time windows, decay, genre filters, other similarity kernels and the cold-start ranking are not
+ *  supported across shards.
+ *  Requests are sent one at a time per shard; the methods of this class are synchronized.
+ *  A shard that does not connect or answer within the timeout fails the query with an IOException;
+ *  its connection is then closed, since a late answer would be taken for the next one.
+ *  A shard that fails while answering replies with its error, which fails the query with an IOException
+ *  but keeps the connection.
+ */
+public class ShardCoordinator implements Closeable {
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    private final Connection[] shards; // index is the shard index
+    private final List<Process> processes = new ArrayList<>();
+    private final ExecutorService pool;
+    private final MovieTitles titles;
+
+    /**
+     * Connects to workers that are already running on this machine
+     * @param ports ports of the workers; ports[i] serves shard i
+     * @param titles movie titles, used to write recommendations
+     * @throws IOException if a worker can not be reached
+     */
+    public ShardCoordinator(int[] ports, MovieTitles titles) throws IOException {
+        this(ports, titles, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Connects to workers that are already running on this machine
+     * @param ports ports of the workers; ports[i] serves shard i
+     * @param titles movie titles, used to write recommendations
+     * @param timeoutMillis how long to wait for a worker to accept the connection or to answer a request
+     * @throws IOException if a worker can not be reached
+     */
+    public ShardCoordinator(int[] ports, MovieTitles titles, int timeoutMillis) throws IOException {
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("Timeout must be positive: " + timeoutMillis);
+        this.titles = titles;
+        shards = new Connection[ports.length];
+        pool = Executors.newFixedThreadPool(ports.length);
+        try {
+            for (int i = 0; i < ports.length; i++)
+                shards[i] = new Connection(ports[i], timeoutMillis);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts numShards ShardWorker processes (with the classpath of this JVM), waits
+     * until each one has loaded its users, and connects to them.
+     * @param movieFilename movies file
+     * @param ratingsFilename ratings file
+     * @param numShards number of worker processes
+     * @return coordinator connected to the new workers; closing it stops them
+     * @throws IOException if a worker fails to start
+     */
+    public static ShardCoordinator launch(String movieFilename, String ratingsFilename, int numShards) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> started = new ArrayList<>();
+        int[] ports = new int[numShards];
+        try {
+            for (int i = 0; i < numShards; i++) {
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ShardWorker.class.getName(), movieFilename, ratingsFilename,
+                        Integer.toString(i), Integer.toString(numShards));
+                pb.redirectErrorStream(true);
+                started.add(pb.start());
+            }
+            // workers load in parallel; wait for each "READY port" line
+            for (int i = 0; i < numShards; i++)
+                ports[i] = awaitReady(started.get(i));
+            MovieRecommender movies = new MovieRecommender();
+            movies.loadMovies(movieFilename);
+            ShardCoordinator coordinator = new ShardCoordinator(ports, movies.getMovieTitles());
+            coordinator.processes.addAll(started);
+            return coordinator;
+        } catch (IOException e) {
+            for (Process p : started)
+                p.destroy();
+            throw e;
+        }
+    }
+
+    private static int awaitReady(Process process) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith("READY ")) {
+                // keep draining the output so that the worker never blocks on a full pipe
+                Thread drain = new Thread(() -> {
+                    try {
+                        while (out.readLine() != null) { }
+                    } catch (IOException e) {
+                        // worker exited
+                    }
+                }, "shard-output");
+                drain.setDaemon(true);
+                drain.start();
+                return Integer.parseInt(line.substring(6).trim());
+            }
+        }
+        throw new IOException("Shard worker exited before it was ready");
+    }
+
+    /** Returns the number of shards */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Finds the user most similar to the given user across all shards
+     * @param userid id of the user
+     * @return the most similar user and their similarity, or null if there is none
+     * @throws IOException if a shard fails
+     */
+    public synchronized Neighbour findMostSimilarUser(int userid) throws IOException {
+        Neighbour[] best = findMostSimilarUsers(userid, 1);
+        return best.length == 0 ? null : best[0];
+    }
+
+    /**
+     * Finds the k users most similar to the given user across all shards: every shard
+     * returns its local top k and the coordinator merges them.
+     * @param userid id of the user
+     * @param k number of neighbours
+     * @return up to k neighbours, best first (empty if the user does not exist)
+     * @throws IOException if a shard fails
+     */
+    public synchronized Neighbour[] findMostSimilarUsers(int userid, int k) throws IOException {
+        return findMostSimilarUsers(getUser(userid), k);
+    }
+
+    /** Scatters the target user's ratings to every shard and merges their top k */
+    private Neighbour[] findMostSimilarUsers(User target, int k) throws IOException {
+        if (target == null || k <= 0)
+            return new Neighbour[0];
+        List<Future<Neighbour[]>> replies = new ArrayList<>();
+        for (Connection shard : shards)
+            replies.add(pool.submit(() -> shard.neighbours(target, k)));
+        Neighbour[] best = new Neighbour[k];
+        int count = 0;
+        for (Future<Neighbour[]> reply : replies) {
+            for (Neighbour neighbour : get(reply))
+                count = Neighbour.offer(best, count, neighbour);
+        }
+        return Arrays.copyOf(best, count);
+    }
+
+    /**
+     * Computes up to num recommendations for the user, like MovieRecommender.findRecommendations,
+     * and writes them to the sink
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @param sink where to write the recommendations
+     * @throws IOException if a shard or the sink fails
+     */
+    public synchronized void findRecommendations(int userid, int num, RecommendationSink sink) throws IOException {
+        sink.write(userid, computeRecommendations(userid, num), titles);
+    }
+
+    /**
+     * Computes up to num recommendations for the user: the favorite movies of the most
+     * similar user (in any shard) that this user has not rated yet
+     * @param userid id of the user
+     * @param num max number of recommendations
+     * @return ids of the recommended movies
+     * @throws IOException if a shard fails
+     */
+    public synchronized int[] computeRecommendations(int userid, int num) throws IOException {
+        User target = getUser(userid); // fetched once, for the search and for the filter
+        Neighbour[] neighbours = findMostSimilarUsers(target, 1);
+        if (neighbours.length == 0)
+            return new int[0];
+        Neighbour best = neighbours[0];
+        int[] favorites = shardOf(best.getUserId()).favorites(best.getUserId(), num);
+        int[] recommended = new int[favorites.length];
+        int count = 0;
+        for (int movieId : favorites) {
+            if (target.getRating(movieId) < 0)
+                recommended[count++] = movieId;
+        }
+        return Arrays.copyOf(recommended, count);
+    }
+
+    /** Fetches a user from the shard that owns it */
+    private User getUser(int userid) throws IOException {
+        return shardOf(userid).user(userid);
+    }
+
+    private Connection shardOf(int userid) {
+        return shards[MovieRecommender.shardOf(userid, shards.length)];
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Shard request failed", cause);
+        }
+    }
+
+    /** Disconnects from the shards and stops the workers this coordinator launched */
+    public void close() throws IOException {
+        for (Connection shard : shards) {
+            if (shard != null) {
+                if (!processes.isEmpty())
+                    shard.shutdown();
+                shard.close();
+            }
+        }
+        pool.shutdown();
+        for (Process p : processes) {
+            try {
+                if (!p.waitFor(5, java.util.concurrent.TimeUnit.SECONDS))
+                    p.destroy();
+            } catch (InterruptedException e) {
+                p.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ------------------------------------------------------
+    /**
+     * The connection to one shard worker.
+     */
+    private static class Connection implements Closeable {
+        private final int port;
+        private final int timeoutMillis;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(int port, int timeoutMillis) throws IOException {
+            this.port = port;
+            this.timeoutMillis = timeoutMillis;
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /** Runs one request; on any failure the connection is closed, as the stream is out of step */
+        private <T> T request(Request<T> request) throws IOException {
+            if (socket.isClosed())
+                throw new IOException("Shard on port " + port + " is disconnected after an earlier failure");
+            try {
+                return request.run();
+            } catch (ShardFailure e) {
+                throw e; // the shard answered with an error: the stream is still in step
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                throw new IOException("Shard on port " + port + " did not answer within " + timeoutMillis + " ms", e);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        Neighbour[] neighbours(User target, int k) throws IOException {
+            return request(() -> neighboursRequest(target, k));
+        }
+
+        User user(int userid) throws IOException {
+            return request(() -> userRequest(userid));
+        }
+
+        int[] favorites(int userid, int num) throws IOException {
+            return request(() -> favoritesRequest(userid, num));
+        }
+
+        private Neighbour[] neighboursRequest(User target, int k) throws IOException {
+            out.writeInt(ShardWorker.NEIGHBOURS);
+            out.writeInt(k);
+            ShardWorker.writeUser(out, target);
+            out.flush();
+            Neighbour[] result = new Neighbour[readCount()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = new Neighbour(in.readInt(), in.readDouble());
+            return result;
+        }
+
+        private User userRequest(int userid) throws IOException {
+            out.writeInt(ShardWorker.RATINGS);
+            out.writeInt(userid);
+            out.flush();
+            int n = readCount();
+            if (n < 0)
+                return null;
+            User user = new User(userid);
+            ShardWorker.readRatings(in, user, n);
+            return user;
+        }
+
+        private int[] favoritesRequest(int userid, int num) throws IOException {
+            out.writeInt(ShardWorker.FAVORITES);
+            out.writeInt(userid);
+            out.writeInt(num);
+            out.flush();
+            int[] result = new int[readCount()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = in.readInt();
+            return result;
+        }
+
+        /** Reads the first int of a reply, or throws the shard's error if the reply is one */
+        private int readCount() throws IOException {
+            int n = in.readInt();
+            if (n == ShardWorker.ERROR)
+                throw new ShardFailure("Shard on port " + port + " failed: " + in.readUTF());
+            return n;
+        }
+
+        void shutdown() {
+            try {
+                out.writeInt(ShardWorker.SHUTDOWN);
+                out.flush();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /** An error reported by a shard in its reply */
+    private static class ShardFailure extends IOException {
+        ShardFailure(String message) {
+            super(message);
+        }
+    }
+
+    /** One request/response exchange with a shard */
+    private interface Request<T> {
+        T run() throws IOException;
+    }
+}
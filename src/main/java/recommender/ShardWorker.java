@@ -0,0 +1,201 @@
+package recommender;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/** One shard of a sharded recommender: a MovieRecommender holding only the users that hash
+ *  to this shard, answering requests from a ShardCoordinator over a loopback TCP socket.
+ *
+ *  Every request starts with an int opcode and is answered before the next one is read:
+ *  - NEIGHBOURS: int k, int targetId, int n, n x (int movieId, double rating)
+ *                -> int count, count x (int userId, double similarity), best first
+ *  - RATINGS:    int userId -> int n (-1 if the user is not in this shard), n x (int movieId, double rating)
+ *  - FAVORITES:  int userId, int num -> int n, n x int movieId (getFavoriteMovies(num) of the user)
+ *  - SHUTDOWN:   stops the worker
+ *  If answering fails with a RuntimeException (the request itself was read in full),
+ *  the reply is int ERROR followed by the error as a UTF string, and the connection stays usable.
+ *
+ *  Run as a process: ShardWorker moviesFile ratingsFile shardIndex numShards [port]
+ *  It prints "READY port" on standard output once the data is loaded.
+ */
+public class ShardWorker implements Closeable {
+    static final int SHUTDOWN = 0;
+    static final int NEIGHBOURS = 1;
+    static final int RATINGS = 2;
+    static final int FAVORITES = 3;
+    static final int ERROR = -2; // first int of a failed reply; -1 already means "no such user"
+
+    private final MovieRecommender shard;
+    private final ServerSocket server;
+    private volatile boolean closed;
+
+    /**
+     * Starts serving the given shard on a loopback port
+     * @param shard recommender holding this shard's users
+     * @param port TCP port, 0 for any free port
+     * @throws IOException if the port can not be bound
+     */
+    public ShardWorker(MovieRecommender shard, int port) throws IOException {
+        this.shard = shard;
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "shard-acceptor-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Returns the port this worker listens on */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** Returns true once the worker has stopped */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /** Blocks until the worker is closed (by close or by a SHUTDOWN request) */
+    public synchronized void awaitClose() throws InterruptedException {
+        while (!closed)
+            wait();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serve(socket), "shard-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed)
+                    System.out.println(e);
+            }
+        }
+    }
+
+    /** Answers the requests of one connection until it is closed */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                int op;
+                try {
+                    op = in.readInt();
+                } catch (EOFException e) {
+                    return; // the coordinator went away
+                }
+                if (op == SHUTDOWN) {
+                    close();
+                    return;
+                }
+                try {
+                    switch (op) {
+                        case NEIGHBOURS:
+                            neighbours(in, out);
+                            break;
+                        case RATINGS:
+                            ratings(in, out);
+                            break;
+                        case FAVORITES:
+                            favorites(in, out);
+                            break;
+                        default:
+                            throw new IOException("Unknown request " + op);
+                    }
+                } catch (RuntimeException e) {
+                    // every handler computes its answer before writing it, so nothing of it was sent yet
+                    out.writeInt(ERROR);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // connection closed while answering
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    private void neighbours(DataInputStream in, DataOutputStream out) throws IOException {
+        int k = in.readInt();
+        User target = readUser(in);
+        Neighbour[] best = shard.findMostSimilarUsers(target, k);
+        out.writeInt(best.length);
+        for (Neighbour neighbour : best) {
+            out.writeInt(neighbour.getUserId());
+            out.writeDouble(neighbour.getSimilarity());
+        }
+    }
+
+    private void ratings(DataInputStream in, DataOutputStream out) throws IOException {
+        User user = shard.getUser(in.readInt());
+        if (user == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeRatings(out, user);
+    }
+
+    private void favorites(DataInputStream in, DataOutputStream out) throws IOException {
+        User user = shard.getUser(in.readInt());
+        int num = in.readInt();
+        int[] favorites = user == null ? new int[0] : user.getFavoriteMovies(num);
+        out.writeInt(favorites.length);
+        for (int movieId : favorites)
+            out.writeInt(movieId);
+    }
+
+    /** Writes a user's ratings as: int userId, int n, n x (int movieId, double rating) in movie id order */
+    static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeInt(user.getId());
+        writeRatings(out, user);
+    }
+
+    private static void writeRatings(DataOutputStream out, User user) throws IOException {
+        UserRatings ratings = user.sortedRatings();
+        out.writeInt(ratings.size());
+        for (int i = 0; i < ratings.size(); i++) {
+            out.writeInt(ratings.movieIdAt(i));
+            out.writeDouble(ratings.ratingAt(i));
+        }
+    }
+
+    /** Reads a user written by writeUser */
+    static User readUser(DataInputStream in) throws IOException {
+        User user = new User(in.readInt());
+        readRatings(in, user, in.readInt());
+        return user;
+    }
+
+    /** Reads n (movieId, rating) pairs into the user */
+    static void readRatings(DataInputStream in, User user, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            user.insert(in.readInt(), in.readDouble());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: ShardWorker moviesFile ratingsFile shardIndex numShards [port]");
+            return;
+        }
+        MovieRecommender shard = new MovieRecommender();
+        shard.setShard(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        shard.loadData(args[0], args[1]);
+        ShardWorker worker = new ShardWorker(shard, args.length > 4 ? Integer.parseInt(args[4]) : 0);
+        System.out.println("READY " + worker.getPort());
+        System.out.flush();
+        worker.awaitClose();
+    }
+}
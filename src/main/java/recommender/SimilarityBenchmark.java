@@ -0,0 +1,149 @@
+package recommender;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** A micro-benchmark for the similarity kernels.
+ *  Loads the data, takes the heaviest users and computes all their pairwise correlations with
+ *  - the original RatingsList.computeCorrelation loop (hash map over linked lists),
+ *  - the scalar kernel over merge-joined primitive arrays,
+ *  - the best available kernel (SIMD when run with the "simd" profile),
+ *  - the scalar and best kernels over a dense user x movie block,
+ *  - User.computeSimilarity, which picks the kernel from the users' representations
+ *    (dense vectors for users with at least User.DENSE_USER_RATINGS ratings).
+ *  Then it moves the ratings off the heap and reports the time of User.computeSimilarity per pair
+ *  again, with the bytes it allocated per pair and the number of garbage collections during the rounds.
+ *  Usage: SimilarityBenchmark [moviesFile ratingsFile numUsers rounds]
+ */
+public class SimilarityBenchmark {
+    private static volatile double sink; // keeps the JIT from removing the loops
+
+    public static void main(String[] args) {
+        String moviesFile = args.length > 0 ? args[0] : "input/movies.csv";
+        String ratingsFile = args.length > 1 ? args[1] : "input/ratings.csv";
+        int numUsers = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(moviesFile, ratingsFile);
+        User[] heavy = heaviestUsers(recommender.users(), numUsers);
+        System.out.println("Kernel: " + CorrelationKernels.get().getClass().getSimpleName()
+                + ", users: " + heavy.length + ", smallest has " + heavy[heavy.length - 1].sortedRatings().size() + " ratings");
+
+        // dense block: one row per user over the union of their movies, 0 = not rated
+        int[] columns = unionOfMovies(heavy);
+        double[] block = new double[heavy.length * columns.length];
+        for (int u = 0; u < heavy.length; u++) {
+            UserRatings r = heavy[u].sortedRatings();
+            for (int i = 0; i < r.size(); i++)
+                block[u * columns.length + Arrays.binarySearch(columns, r.movieIdAt(i))] = r.ratingAt(i);
+        }
+
+        CorrelationKernel scalar = CorrelationKernels.scalar();
+        CorrelationKernel best = CorrelationKernels.get();
+        for (int round = 0; round < rounds; round++) {
+            long linked = time(() -> {
+                double s = 0;
+                for (User a : heavy)
+                    for (User b : heavy)
+                        s += a.ratings().computeCorrelation(b.ratings());
+                sink = s;
+            });
+            long sparseScalar = time(() -> sink = sparse(heavy, scalar));
+            long sparseBest = time(() -> sink = sparse(heavy, best));
+            long denseScalar = time(() -> sink = dense(block, heavy.length, columns.length, scalar));
+            long denseBest = time(() -> sink = dense(block, heavy.length, columns.length, best));
+            long adaptive = time(() -> {
+                double s = 0;
+                for (User a : heavy)
+                    for (User b : heavy)
+                        s += a.computeSimilarity(b);
+                sink = s;
+            });
+            long pairs = (long) heavy.length * heavy.length;
+            System.out.printf("round %d: computeCorrelation %d ns/pair, sparse scalar %d (x%.1f), sparse best %d (x%.1f), "
+                            + "dense scalar %d (x%.1f), dense best %d (x%.1f), adaptive %d (x%.1f)%n", round,
+                    linked / pairs, sparseScalar / pairs, (double) linked / sparseScalar,
+                    sparseBest / pairs, (double) linked / sparseBest,
+                    denseScalar / pairs, (double) linked / denseScalar,
+                    denseBest / pairs, (double) linked / denseBest,
+                    adaptive / pairs, (double) linked / adaptive);
+        }
+
+        recommender.moveRatingsOffHeap();
+        for (int round = 0; round < rounds; round++) {
+            long collections = collections();
+            long allocated = allocatedBytes();
+            long offHeap = time(() -> {
+                double s = 0;
+                for (User a : heavy)
+                    for (User b : heavy)
+                        s += a.computeSimilarity(b);
+                sink = s;
+            });
+            allocated = allocatedBytes() - allocated;
+            long pairs = (long) heavy.length * heavy.length;
+            System.out.printf("round %d: off heap %d ns/pair, %d bytes/pair allocated, %d collections%n", round,
+                    offHeap / pairs, allocated / pairs, collections() - collections);
+        }
+    }
+
+    /** Returns the number of garbage collections so far */
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionCount());
+        return total;
+    }
+
+    /** Returns the bytes allocated by this thread so far, or 0 if the JVM does not tell */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    private static double sparse(User[] users, CorrelationKernel kernel) {
+        double s = 0;
+        double[] x = new double[users[0].sortedRatings().size()];
+        double[] y = new double[x.length];
+        for (User a : users) {
+            for (User b : users) {
+                int n = a.sortedRatings().intersect(b.sortedRatings(), x, y);
+                s += kernel.pearson(x, y, n);
+            }
+        }
+        return s;
+    }
+
+    private static double dense(double[] block, int rows, int cols, CorrelationKernel kernel) {
+        double s = 0;
+        for (int a = 0; a < rows; a++)
+            for (int b = 0; b < rows; b++)
+                s += kernel.pearsonDense(block, a * cols, block, b * cols, cols);
+        return s;
+    }
+
+    private static long time(Runnable r) {
+        long start = System.nanoTime();
+        r.run();
+        return Math.max(1, System.nanoTime() - start);
+    }
+
+    /** Returns up to n users with the most ratings, heaviest first */
+    private static User[] heaviestUsers(User[] users, int n) {
+        User[] all = Arrays.stream(users).filter(u -> u != null).toArray(User[]::new);
+        Arrays.sort(all, (a, b) -> Integer.compare(b.sortedRatings().size(), a.sortedRatings().size()));
+        return Arrays.copyOf(all, Math.min(n, all.length));
+    }
+
+    private static int[] unionOfMovies(User[] users) {
+        return Arrays.stream(users).flatMapToInt(u -> {
+                    UserRatings r = u.sortedRatings();
+                    return IntStream.range(0, r.size()).map(r::movieIdAt);
+                }).distinct().sorted().toArray();
+    }
+}
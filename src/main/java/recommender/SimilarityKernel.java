@@ -0,0 +1,57 @@
+package recommender;
+
+/** A measure of how similar two users are, used to pick the most similar user.
+ *  Higher values mean more similar; NaN means the similarity is undefined (the user is skipped).
+ *  A kernel is applied in two steps: prepare does the work that only depends on the target
+ *  user once per query, and the returned Query compares the target with every candidate.
+ *  The per-rating loops of the kernels run over primitive arrays.
+ *  See SimilarityKernels for the implementations; select one with RecommendationOptions.withSimilarity.
+ */
+public interface SimilarityKernel {
+
+    /**
+     * Prepares the comparisons of one user with the others
+     * @param target the user to find similar users for
+     * @param stats statistics of the movies (for kernels that center ratings on movie means)
+     * @return query comparing the target with other users; not thread-safe
+     */
+    Query prepare(User target, MovieStats stats);
+
+    /** Returns the name of this kernel */
+    String name();
+
+    /**
+     * The comparisons of one target user with other users.
+     */
+    interface Query {
+
+        /**
+         * Computes the similarity of the target user with another user
+         * @param other the other user
+         * @return similarity, NaN if it is undefined
+         */
+        double similarity(User other);
+
+        /**
+         * Finds the user most similar to the target: highest similarity first, smallest id on ties,
+         * undefined (NaN) similarities skipped, like MovieRecommender.findMostSimilarUser
+         * @param users array of users; index is the user id, null entries are skipped
+         * @param self id of the target user, which is skipped
+         * @return id of the most similar user, or -1 if there is none
+         */
+        default int mostSimilar(User[] users, int self) {
+            int best = -1;
+            double bestSimilarity = Double.NaN;
+            for (int id = 0; id < users.length; id++) {
+                if (users[id] != null && id != self) {
+                    double similarity = similarity(users[id]);
+                    if (similarity > bestSimilarity || (best < 0 && !Double.isNaN(similarity))) {
+                        best = id;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package recommender;
+
+import java.util.Arrays;
+
+/** Compares the similarity kernels (see SimilarityKernels) on speed and on the quality of the neighbours.
+ *  Loads the data, hides every HOLDOUT-th rating (by movie id) of a sample of users, and then,
+ *  for each kernel, finds the most similar user of every sampled user and reports
+ *  - the time per findMostSimilarUser query,
+ *  - coverage: the fraction of the hidden ratings whose movie the neighbour rated,
+ *  - MAE: the mean absolute difference between a hidden rating and the neighbour's rating of the movie.
+ *  Usage: SimilarityKernelBenchmark [moviesFile ratingsFile numQueries rounds]
+ */
+public class SimilarityKernelBenchmark {
+    private static final int HOLDOUT = 5; // hide 1 rating in 5
+
+    public static void main(String[] args) {
+        String moviesFile = args.length > 0 ? args[0] : "input/movies.csv";
+        String ratingsFile = args.length > 1 ? args[1] : "input/ratings.csv";
+        int numQueries = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(moviesFile, ratingsFile);
+        User[] users = recommender.users().clone();
+        int[] queries = sample(users, numQueries);
+        int[][] hiddenIds = new int[queries.length][];
+        double[][] hiddenRatings = new double[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            UserRatings r = users[queries[q]].sortedRatings();
+            User copy = new User(queries[q]);
+            int n = r.size() / HOLDOUT;
+            hiddenIds[q] = new int[n];
+            hiddenRatings[q] = new double[n];
+            for (int i = 0; i < r.size(); i++) {
+                if (i % HOLDOUT == HOLDOUT - 1) {
+                    hiddenIds[q][i / HOLDOUT] = r.movieIdAt(i);
+                    hiddenRatings[q][i / HOLDOUT] = r.ratingAt(i);
+                } else {
+                    copy.insert(r.movieIdAt(i), r.ratingAt(i));
+                }
+            }
+            users[queries[q]] = copy;
+        }
+        recommender.setUsers(users);
+        recommender.getMovieStats(); // built on demand after setUsers: keep it out of the timings
+        System.out.println("Queries: " + queries.length + ", hidden ratings: 1 in " + HOLDOUT);
+
+        for (int round = 0; round < rounds; round++) {
+            for (SimilarityKernel kernel : SimilarityKernels.all()) {
+                RecommendationOptions options = RecommendationOptions.DEFAULT.withSimilarity(kernel);
+                User[] neighbours = new User[queries.length];
+                long start = System.nanoTime();
+                for (int q = 0; q < queries.length; q++)
+                    neighbours[q] = recommender.findMostSimilarUser(queries[q], options);
+                long elapsed = System.nanoTime() - start;
+
+                int hidden = 0, covered = 0;
+                double error = 0;
+                for (int q = 0; q < queries.length; q++) {
+                    for (int i = 0; i < hiddenIds[q].length; i++) {
+                        hidden++;
+                        double rating = neighbours[q] == null ? -1 : neighbours[q].sortedRatings().getRating(hiddenIds[q][i]);
+                        if (rating >= 0) {
+                            covered++;
+                            error += Math.abs(rating - hiddenRatings[q][i]);
+                        }
+                    }
+                }
+                System.out.printf("round %d: %-15s %8.3f ms/query, coverage %5.1f%%, MAE %.3f%n", round, kernel.name(),
+                        elapsed / 1e6 / queries.length, 100.0 * covered / Math.max(1, hidden),
+                        covered == 0 ? Double.NaN : error / covered);
+            }
+        }
+    }
+
+    /** Returns the ids of up to n users with at least HOLDOUT ratings, spread evenly over the ids */
+    private static int[] sample(User[] users, int n) {
+        int count = 0;
+        for (User user : users) {
+            if (user != null && user.sortedRatings().size() >= HOLDOUT)
+                count++;
+        }
+        int step = Math.max(1, count / Math.max(1, n));
+        int[] ids = new int[Math.min(n, count)];
+        int seen = 0, k = 0;
+        for (int id = 0; id < users.length && k < ids.length; id++) {
+            if (users[id] != null && users[id].sortedRatings().size() >= HOLDOUT && seen++ % step == 0)
+                ids[k++] = id;
+        }
+        return Arrays.copyOf(ids, k);
+    }
+}
@@ -0,0 +1,272 @@
+package recommender;
+
+/** The similarity kernels:
+ *  - PEARSON: Pearson correlation over the co-rated movies (User.computeSimilarity), the default;
+ *  - COSINE: cosine of the two rating vectors, missing ratings counting as 0:
+ *        sum(x * y over co-rated) / (|all of x| * |all of y|);
+ *  - ADJUSTED_COSINE: cosine over the co-rated movies after subtracting each movie's mean rating,
+ *        so that agreeing on a movie everybody likes counts less than agreeing on a divisive one;
+ *  - JACCARD: number of co-rated movies over the number of movies rated by either user,
+ *        ignoring the ratings; the target's movies are kept in a bitmap indexed by movie id;
+ *  - MSD: 1 - mean squared difference of the co-rated ratings / 4.5^2 (4.5 is the largest
+ *        possible difference), so identical ratings give 1.
+ *  All kernels but PEARSON copy the target's ratings into primitive arrays once per query,
+ *  and decode each candidate's movie ids once into a reusable array (see UserRatings.copyMovieIds),
+ *  so compressed candidates are decoded sequentially instead of once per position.
+ */
+public final class SimilarityKernels {
+    public static final SimilarityKernel PEARSON = new Pearson();
+    public static final SimilarityKernel COSINE = new Cosine();
+    public static final SimilarityKernel ADJUSTED_COSINE = new AdjustedCosine();
+    public static final SimilarityKernel JACCARD = new Jaccard();
+    public static final SimilarityKernel MSD = new MeanSquaredDifference();
+
+    private static final SimilarityKernel[] ALL = {PEARSON, COSINE, ADJUSTED_COSINE, JACCARD, MSD};
+    private static final double MAX_DIFFERENCE = 4.5; // between ratings of 0.5 and 5
+
+    private SimilarityKernels() {
+    }
+
+    /** Returns all the kernels */
+    public static SimilarityKernel[] all() {
+        return ALL.clone();
+    }
+
+    /**
+     * Returns the kernel with the given name
+     * @param name name of the kernel, as returned by name(), case-insensitive
+     * @return the kernel
+     * @throws IllegalArgumentException if there is no such kernel
+     */
+    public static SimilarityKernel byName(String name) {
+        for (SimilarityKernel kernel : ALL) {
+            if (kernel.name().equalsIgnoreCase(name))
+                return kernel;
+        }
+        throw new IllegalArgumentException("Unknown similarity kernel: " + name);
+    }
+
+    /** Copies the movie ids of the ratings into buffer, or into a larger array if it is too small */
+    private static int[] movieIds(UserRatings ratings, int[] buffer) {
+        if (buffer.length < ratings.size())
+            buffer = new int[Math.max(ratings.size(), 2 * buffer.length)];
+        ratings.copyMovieIds(buffer);
+        return buffer;
+    }
+
+    // ------------------------------------------------------
+    private static final class Pearson implements SimilarityKernel {
+        public Query prepare(User target, MovieStats stats) {
+            return new PearsonQuery(target);
+        }
+
+        public String name() {
+            return "pearson";
+        }
+    }
+
+    /** Keeps the representation-specific paths of User.computeSimilarity */
+    private static final class PearsonQuery implements SimilarityKernel.Query {
+        private final User target;
+
+        PearsonQuery(User target) {
+            this.target = target;
+        }
+
+        public double similarity(User other) {
+            return target.computeSimilarity(other);
+        }
+    }
+
+    private static final class Cosine implements SimilarityKernel {
+        public Query prepare(User target, MovieStats stats) {
+            return new CosineQuery(target);
+        }
+
+        public String name() {
+            return "cosine";
+        }
+    }
+
+    private static final class CosineQuery extends JoinQuery {
+        private final double norm;
+
+        CosineQuery(User target) {
+            super(target);
+            double sum = 0;
+            for (double r : targetRatings)
+                sum += r * r;
+            norm = Math.sqrt(sum);
+        }
+
+        public double similarity(User other) {
+            UserRatings ratings = other.sortedRatings();
+            int n = join(ratings);
+            double dot = 0;
+            for (int i = 0; i < n; i++)
+                dot += x[i] * y[i];
+            double sum = 0;
+            for (int i = 0; i < ratings.size(); i++) {
+                double r = ratings.ratingAt(i);
+                sum += r * r;
+            }
+            return dot / (norm * Math.sqrt(sum));
+        }
+    }
+
+    private static final class AdjustedCosine implements SimilarityKernel {
+        public Query prepare(User target, MovieStats stats) {
+            return new AdjustedCosineQuery(target, stats);
+        }
+
+        public String name() {
+            return "adjusted-cosine";
+        }
+    }
+
+    private static final class AdjustedCosineQuery extends JoinQuery {
+        private final double[] means; // mean rating of each of the target's movies
+
+        AdjustedCosineQuery(User target, MovieStats stats) {
+            super(target);
+            means = new double[targetIds.length];
+            for (int i = 0; i < means.length; i++)
+                means[i] = stats.getMean(targetIds[i]);
+        }
+
+        public double similarity(User other) {
+            int n = join(other.sortedRatings());
+            double sumab = 0, suma2 = 0, sumb2 = 0;
+            for (int i = 0; i < n; i++) {
+                double mean = means[positions[i]];
+                double a = x[i] - mean;
+                double b = y[i] - mean;
+                sumab += a * b;
+                suma2 += a * a;
+                sumb2 += b * b;
+            }
+            return sumab / (Math.sqrt(suma2) * Math.sqrt(sumb2));
+        }
+    }
+
+    private static final class Jaccard implements SimilarityKernel {
+        public Query prepare(User target, MovieStats stats) {
+            return new JaccardQuery(target);
+        }
+
+        public String name() {
+            return "jaccard";
+        }
+    }
+
+    private static final class JaccardQuery implements SimilarityKernel.Query {
+        private final long[] bitmap; // bit movieId is set if the target rated the movie
+        private final int size;
+        private int[] otherIds = new int[0]; // movie ids of the candidate, reused between candidates
+
+        JaccardQuery(User target) {
+            UserRatings ratings = target.sortedRatings();
+            size = ratings.size();
+            bitmap = new long[size == 0 ? 0 : (ratings.movieIdAt(size - 1) >> 6) + 1];
+            for (int i = 0; i < size; i++) {
+                int movieId = ratings.movieIdAt(i);
+                bitmap[movieId >> 6] |= 1L << movieId;
+            }
+        }
+
+        public double similarity(User other) {
+            UserRatings ratings = other.sortedRatings();
+            int n = ratings.size();
+            otherIds = movieIds(ratings, otherIds);
+            int common = 0;
+            for (int i = 0; i < n; i++) {
+                int movieId = otherIds[i];
+                int word = movieId >> 6;
+                if (word >= bitmap.length)
+                    break; // ids are sorted: no later one is in the bitmap
+                if ((bitmap[word] & (1L << movieId)) != 0)
+                    common++;
+            }
+            int union = size + n - common;
+            return union == 0 ? Double.NaN : (double) common / union;
+        }
+    }
+
+    private static final class MeanSquaredDifference implements SimilarityKernel {
+        public Query prepare(User target, MovieStats stats) {
+            return new MsdQuery(target);
+        }
+
+        public String name() {
+            return "msd";
+        }
+    }
+
+    private static final class MsdQuery extends JoinQuery {
+        MsdQuery(User target) {
+            super(target);
+        }
+
+        public double similarity(User other) {
+            int n = join(other.sortedRatings());
+            if (n == 0)
+                return Double.NaN;
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                double d = x[i] - y[i];
+                sum += d * d;
+            }
+            return 1 - sum / n / (MAX_DIFFERENCE * MAX_DIFFERENCE);
+        }
+    }
+
+    /**
+     * A query that merge-joins the target's ratings with each candidate's into reusable arrays:
+     * x[i] and y[i] are the target's and the candidate's ratings of the i-th co-rated movie,
+     * positions[i] its index in the target's arrays.
+     */
+    private abstract static class JoinQuery implements SimilarityKernel.Query {
+        final int[] targetIds; // sorted
+        final double[] targetRatings;
+        final double[] x;
+        final double[] y;
+        final int[] positions;
+        private int[] otherIds = new int[0]; // movie ids of the candidate, reused between candidates
+
+        JoinQuery(User target) {
+            UserRatings ratings = target.sortedRatings();
+            int n = ratings.size();
+            targetIds = new int[n];
+            targetRatings = new double[n];
+            for (int i = 0; i < n; i++) {
+                targetIds[i] = ratings.movieIdAt(i);
+                targetRatings[i] = ratings.ratingAt(i);
+            }
+            x = new double[n];
+            y = new double[n];
+            positions = new int[n];
+        }
+
+        /** Fills x, y and positions with the co-rated movies and returns their number */
+        final int join(UserRatings other) {
+            int na = targetIds.length;
+            int nb = other.size();
+            otherIds = movieIds(other, otherIds);
+            int i = 0, j = 0, n = 0;
+            while (i < na && j < nb) {
+                int a = targetIds[i];
+                int b = otherIds[j];
+                if (a < b)
+                    i++;
+                else if (a > b)
+                    j++;
+                else {
+                    x[n] = targetRatings[i];
+                    y[n] = other.ratingAt(j++);
+                    positions[n++] = i++;
+                }
+            }
+            return n;
+        }
+    }
+}
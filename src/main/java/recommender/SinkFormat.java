@@ -0,0 +1,151 @@
+package recommender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Formats for writing recommendations.
+ *  Every format produces UTF-8 and copies titles straight from the MovieTitles arena,
+ *  without decoding them into Strings. Characters that need quoting or escaping
+ *  (comma, quote, backslash, control characters) are all ASCII, and bytes of multi-byte
+ *  UTF-8 sequences are never ASCII, so scanning the raw bytes for them is safe.
+ */
+public enum SinkFormat {
+    /** One movie title per line, nothing else (the format of findRecommendations). */
+    TITLES {
+        void append(Output out, int userId, int[] movieIds, MovieTitles titles) throws IOException {
+            for (int movieId : movieIds) {
+                titles.writeTitle(movieId, out);
+                out.write('\n');
+            }
+        }
+    },
+    /** One line per recommended movie: userId,movieId,title (quoted when needed, as in movies.csv). */
+    CSV {
+        void append(Output out, int userId, int[] movieIds, MovieTitles titles) throws IOException {
+            for (int movieId : movieIds) {
+                out.writeAscii(userId + "," + movieId + ",");
+                int i = titles.indexOf(movieId);
+                if (i < 0)
+                    titles.writeTitle(movieId, out);
+                else if (!contains(titles, i, ',') && !contains(titles, i, '"'))
+                    out.write(titles.arena, titles.offsets[i], titles.offsets[i + 1] - titles.offsets[i]);
+                else {
+                    out.write('"');
+                    for (int p = titles.offsets[i]; p < titles.offsets[i + 1]; p++) {
+                        byte b = titles.arena[p];
+                        if (b == '"')
+                            out.write('"'); // quotes are doubled
+                        out.write(b);
+                    }
+                    out.write('"');
+                }
+                out.write('\n');
+            }
+        }
+    },
+    /** One JSON object per user and line: {"userId":1,"movieIds":[...],"titles":[...]} */
+    JSON_LINES {
+        void append(Output out, int userId, int[] movieIds, MovieTitles titles) throws IOException {
+            out.writeAscii("{\"userId\":" + userId + ",\"movieIds\":[");
+            for (int k = 0; k < movieIds.length; k++) {
+                if (k > 0)
+                    out.write(',');
+                out.writeAscii(Integer.toString(movieIds[k]));
+            }
+            out.writeAscii("],\"titles\":[");
+            for (int k = 0; k < movieIds.length; k++) {
+                if (k > 0)
+                    out.write(',');
+                int i = titles.indexOf(movieIds[k]);
+                if (i < 0) {
+                    out.writeAscii("null");
+                    continue;
+                }
+                out.write('"');
+                for (int p = titles.offsets[i]; p < titles.offsets[i + 1]; p++) {
+                    byte b = titles.arena[p];
+                    switch (b) {
+                        case '"': out.writeAscii("\\\""); break;
+                        case '\\': out.writeAscii("\\\\"); break;
+                        case '\n': out.writeAscii("\\n"); break;
+                        case '\r': out.writeAscii("\\r"); break;
+                        case '\t': out.writeAscii("\\t"); break;
+                        default:
+                            if (b >= 0 && b < 0x20)
+                                out.writeAscii(String.format("\\u%04x", (int) b));
+                            else
+                                out.write(b);
+                    }
+                }
+                out.write('"');
+            }
+            out.writeAscii("]}\n");
+        }
+    };
+
+    /**
+     * Appends the recommendations of one user in this format
+     * @param out where to append
+     * @param userId id of the user
+     * @param movieIds ids of the recommended movies
+     * @param titles movie titles
+     * @throws IOException if the title table fails to write
+     */
+    abstract void append(Output out, int userId, int[] movieIds, MovieTitles titles) throws IOException;
+
+    private static boolean contains(MovieTitles titles, int index, char c) {
+        for (int p = titles.offsets[index]; p < titles.offsets[index + 1]; p++) {
+            if (titles.arena[p] == c)
+                return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------
+    /**
+     * A reusable, growable byte buffer for formatting one user's output.
+     */
+    static class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(4096);
+        }
+
+        /** Writes a string that only contains ASCII characters */
+        void writeAscii(String s) {
+            writeBytes(s.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /** Writes an int, big-endian */
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        /** Writes a double, big-endian, as its IEEE 754 bits */
+        void writeDouble(double v) {
+            long bits = Double.doubleToLongBits(v);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+
+        /** Copies the formatted bytes into the given buffer, which must have room for size() bytes */
+        void copyTo(ByteBuffer buffer) {
+            buffer.put(buf, 0, count);
+        }
+
+        /**
+         * Copies as many formatted bytes as fit into the given buffer, starting at from
+         * @return position of the first byte not copied
+         */
+        int copyTo(ByteBuffer buffer, int from) {
+            int n = Math.min(buffer.remaining(), count - from);
+            buffer.put(buf, from, n);
+            return from + n;
+        }
+    }
+}
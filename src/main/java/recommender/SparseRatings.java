@@ -0,0 +1,100 @@
+package recommender;
+
+import java.util.Arrays;
+
+/** An immutable snapshot of one user's ratings in two parallel primitive arrays,
+ *  sorted by movie id. Used for binary-search lookups and for merge-joining
+ *  the ratings of two users when computing similarity.
+ */
+final class SparseRatings implements UserRatings {
+    final int[] movieIds; // sorted in increasing order
+    final double[] ratings; // ratings[i] is the rating of movieIds[i]
+
+    /** Returns the estimated heap used by this object and its arrays */
+    long getBytesUsed() {
+        return MemoryReport.object(2 * MemoryReport.REFERENCE) + MemoryReport.array(movieIds.length, 4)
+                + MemoryReport.array(ratings.length, 8);
+    }
+
+    private SparseRatings(int[] movieIds, double[] ratings) {
+        this.movieIds = movieIds;
+        this.ratings = ratings;
+    }
+
+    /**
+     * Builds a snapshot from ratings that are already sorted by movie id
+     * @param movieIds movie ids in strictly increasing order
+     * @param ratings ratings[i] is the rating of movieIds[i]
+     * @param n number of ratings in the arrays
+     * @return snapshot with copies of the first n entries
+     */
+    static SparseRatings ofSorted(int[] movieIds, double[] ratings, int n) {
+        return new SparseRatings(Arrays.copyOf(movieIds, n), Arrays.copyOf(ratings, n));
+    }
+
+    /**
+     * Builds a snapshot from a ratings list
+     * @param list ratings list (in any order)
+     * @return snapshot sorted by movie id
+     */
+    static SparseRatings of(RatingsList list) {
+        int n = 0;
+        for (RatingNode node = list.head(); node != null; node = node.next())
+            n++;
+        // sort (movieId, position) pairs packed into longs, then gather the ratings
+        long[] keys = new long[n];
+        double[] inListOrder = new double[n];
+        int i = 0;
+        for (RatingNode node = list.head(); node != null; node = node.next()) {
+            keys[i] = ((long) node.getMovieId() << 32) | i;
+            inListOrder[i] = node.getMovieRating();
+            i++;
+        }
+        Arrays.sort(keys);
+        int[] ids = new int[n];
+        double[] ratings = new double[n];
+        for (i = 0; i < n; i++) {
+            ids[i] = (int) (keys[i] >> 32);
+            ratings[i] = inListOrder[(int) keys[i]];
+        }
+        return new SparseRatings(ids, ratings);
+    }
+
+    public int size() {
+        return movieIds.length;
+    }
+
+    public int movieIdAt(int i) {
+        return movieIds[i];
+    }
+
+    public double ratingAt(int i) {
+        return ratings[i];
+    }
+
+    public int indexOf(int movieId) {
+        return Arrays.binarySearch(movieIds, movieId);
+    }
+
+    public int intersect(UserRatings otherRatings, double[] x, double[] y) {
+        if (!(otherRatings instanceof SparseRatings))
+            return UserRatings.super.intersect(otherRatings, x, y);
+        // both on the heap: work on the arrays directly
+        SparseRatings other = (SparseRatings) otherRatings;
+        int[] a = movieIds;
+        int[] b = other.movieIds;
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                x[n] = ratings[i++];
+                y[n] = other.ratings[j++];
+                n++;
+            }
+        }
+        return n;
+    }
+}
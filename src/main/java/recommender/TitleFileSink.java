@@ -0,0 +1,30 @@
+package recommender;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** The original output of findRecommendations: every write replaces the contents of the file
+ *  with the recommended titles, one title per line, in UTF-8.
+ */
+public class TitleFileSink implements RecommendationSink {
+    private final String filename;
+
+    /**
+     * @param filename name of the file where to output recommended movie titles
+     */
+    public TitleFileSink(String filename) {
+        this.filename = filename;
+    }
+
+    public void write(int userId, int[] movieIds, MovieTitles titles) throws IOException {
+        SinkFormat.Output output = new SinkFormat.Output();
+        SinkFormat.TITLES.append(output, userId, movieIds, titles);
+        try (FileOutputStream out = new FileOutputStream(filename)) {
+            output.writeTo(out);
+        }
+    }
+
+    public void close() {
+        // every write opens and closes the file
+    }
+}
@@ -1,13 +1,30 @@
 package recommender;
 
+import java.util.Arrays;
+
 /** The class store information about a user who watches and rated some movies.
  *  Stores a userId and a list of movie ratings of type RatingsList.
+ *  The ratings can also be moved off the heap (see moveOffHeap) or compressed (see compress);
+ *  the user then reads them through a flyweight and turns them back into a RatingsList on the first change.
  *  FILL IN CODE in methods below.
  *  Do not modify signatures of methods.
  *  */
 public class User {
+    // users with at least this many ratings are compared through the primitive-array kernel
+    static final int HEAVY_USER_RATINGS = 64;
+    // users with at least this many ratings also get a dense vector indexed by movie id (see DenseRatings)
+    static final int DENSE_USER_RATINGS = 1000;
+    // estimated size of a User object: int userId and three references
+    static final long OBJECT_BYTES = MemoryReport.object(4 + 3 * MemoryReport.REFERENCE);
+    // per-thread arrays for the co-rated ratings of computeSimilarity, grown to the largest pair seen
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[2][0]);
+
     private int userId;
-    private RatingsList movieRatings;
+    private RatingsList movieRatings; // null while the ratings are stored off the heap or compressed
+    // ratings sorted by movie id: a SparseRatings built on demand and reset on every change,
+    // or the off-heap slice or the compressed ratings when movieRatings is null
+    private UserRatings sorted;
+    private RatingTimeline timeline; // when each movie was rated; null if no rating had a timestamp
 
     /** A constructor for the recommender.UserNode.
      * @param id 	User id
@@ -17,12 +34,33 @@ public class User {
         movieRatings = new RatingsList();
     }
 
+    /**
+     * Creates a user with the given list of ratings
+     * @param id user id
+     * @param ratings ratings sorted by rating, highest first
+     */
+    User(int id, RatingsList ratings) {
+        userId = id;
+        movieRatings = ratings;
+    }
+
     /** Return a userId stored in this node */
     public int getId() {
         return userId;
     }
 
-    public int[] getMovieIds(){return movieRatings.getMovieIds();}
+    public int[] getMovieIds(){
+        if (movieRatings == null)
+            return sorted.rankedMovieIds();
+        return movieRatings.getMovieIds();
+    }
+
+    /** Returns the list of ratings of this user (sorted by rating, highest first).
+     *  Brings off-heap or compressed ratings back into a list. */
+    RatingsList ratings() {
+        thaw();
+        return movieRatings;
+    }
 
 
     /**
@@ -34,7 +72,60 @@ public class User {
      * @param rating  rating of the movie
      */
     public void insert(int movieId, double rating) {
+        thaw();
         movieRatings.insertByRating(movieId, rating);
+        sorted = null;
+    }
+
+    /**
+     * Add rating info for a given movie, together with the time of the rating
+     * @param movieId id of the movie
+     * @param rating  rating of the movie
+     * @param timestamp time of the rating in seconds since the epoch
+     */
+    public void insert(int movieId, double rating, long timestamp) {
+        insert(movieId, rating);
+        if (timeline == null)
+            timeline = new RatingTimeline();
+        timeline.add(movieId, timestamp);
+    }
+
+    /**
+     * Adds a run of ratings at once. If this user has no ratings yet, the movie ids are
+     * strictly increasing and every rating is valid, the list is built in one pass in the order
+     * that inserting them one by one would produce (by rating, then by decreasing movie id):
+     * a counting sort instead of one O(n) insertByRating per rating. Otherwise the ratings
+     * are inserted one by one.
+     * @param movieIds ids of the movies
+     * @param ratings ratings[i] is the rating of movieIds[i]
+     * @param timestamps timestamps[i] is the time of ratings[i]
+     * @param n number of ratings in the arrays
+     */
+    void insertAll(int[] movieIds, double[] ratings, long[] timestamps, int n) {
+        if (!canBulkLoad(movieIds, ratings, n)) {
+            for (int i = 0; i < n; i++)
+                insert(movieIds[i], ratings[i], timestamps[i]);
+            return;
+        }
+        SparseRatings s = SparseRatings.ofSorted(movieIds, ratings, n);
+        movieRatings = RatingsList.ofRanked(s.movieIds, s.ratings, s.rankedPositions());
+        sorted = adapt(s); // the run is sorted by movie id, so the cache comes for free
+        if (n > 0) {
+            timeline = new RatingTimeline();
+            timeline.addAll(movieIds, timestamps, n);
+        }
+    }
+
+    /** Checks that a run can be bulk loaded into this user (see insertAll) */
+    private boolean canBulkLoad(int[] movieIds, double[] ratings, int n) {
+        if (movieRatings == null || movieRatings.head() != null || timeline != null)
+            return false;
+        for (int i = 0; i < n; i++) {
+            // invalid ratings are stored as 3 but positioned by their value: leave them to insertByRating
+            if (!(ratings[i] >= 0.5 && ratings[i] <= 5) || (i > 0 && movieIds[i] <= movieIds[i - 1]))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -45,6 +136,14 @@ public class User {
      */
     public int[] getFavoriteMovies(int n) { //helper method for printUser in MovieRecommender
         int[] favList = new int[n];
+        if (movieRatings == null) {
+            int[] ranked = sorted.rankedMovieIds();
+            for (int i = 0; i < favList.length && i < ranked.length; i++) {
+                if (sorted.getRating(ranked[i]) == 5) //only accepts movie with a 5 rating
+                    favList[i] = ranked[i];
+            }
+            return favList;
+        }
         RatingNode curr = movieRatings.head();
         for(int i = 0; i < favList.length; i++) {
             if(curr.getMovieRating() == 5) { //only accepts movie with a 5 rating
@@ -55,6 +154,78 @@ public class User {
         return favList;
     }
 
+    /**
+     * Returns an array of user's favorite movies (up to n), rated 5, taking only the ratings
+     * within the time window of the options into account. Most recent ratings come first.
+     * Without a time window or decay, the same as getFavoriteMovies(n).
+     *
+     * @param n  number of movies to return
+     * @param options time window
+     * @return array containing movie ids this user rated 5 in the window
+     */
+    public int[] getFavoriteMovies(int n, RecommendationOptions options) {
+        if (!options.usesTime())
+            return getFavoriteMovies(n);
+        if (timeline == null)
+            return new int[0];
+        RatingTimeline.Window window = timeline.window(options.getFromTime(), options.getToTime());
+        UserRatings ratings = sortedRatings();
+        // repack the 5-star ratings as (rank in time order, movie id) to sort them by time
+        long[] favorites = new long[window.entries.length];
+        int count = 0;
+        for (long entry : window.entries) {
+            int movieId = (int) (entry >>> 32);
+            if (ratings.getRating(movieId) == 5)
+                favorites[count++] = ((long) (int) entry << 32) | movieId;
+        }
+        Arrays.sort(favorites, 0, count);
+        int[] favList = new int[Math.min(n, count)];
+        for (int i = 0; i < favList.length; i++)
+            favList[i] = (int) favorites[count - 1 - i];
+        return favList;
+    }
+
+    /**
+     * Returns an array of user's favorite movies (up to n), rated 5, that belong to any of the
+     * genres of the options' genre filter. The genre test is a bitwise AND on the movie's
+     * genre mask, done before a movie is considered at all.
+     * Without a genre filter, the same as getFavoriteMovies(n, options).
+     *
+     * @param n  number of movies to return
+     * @param options time window and genre filter
+     * @param genres genres of the movies
+     * @return array containing movie ids of this user's favorite movies in the genres
+     */
+    public int[] getFavoriteMovies(int n, RecommendationOptions options, GenreIndex genres) {
+        if (!options.hasGenreFilter() || genres == null)
+            return getFavoriteMovies(n, options);
+        long filter = options.getGenreMask();
+        int[] favList = new int[n];
+        int count = 0;
+        if (options.usesTime()) {
+            for (int movieId : getFavoriteMovies(Integer.MAX_VALUE, options)) {
+                if (count == n)
+                    break;
+                if (genres.matches(movieId, filter))
+                    favList[count++] = movieId;
+            }
+        } else if (movieRatings == null) {
+            for (int movieId : sorted.rankedMovieIds()) {
+                if (count == n || sorted.getRating(movieId) != 5)
+                    break;
+                if (genres.matches(movieId, filter))
+                    favList[count++] = movieId;
+            }
+        } else {
+            // the list is sorted by rating, so movies rated 5 come first
+            for (RatingNode curr = movieRatings.head(); curr != null && curr.getMovieRating() == 5 && count < n; curr = curr.next()) {
+                if (genres.matches(curr.getMovieId(), filter))
+                    favList[count++] = curr.getMovieId();
+            }
+        }
+        return Arrays.copyOf(favList, count);
+    }
+
     /**
      * Computes the similarity of this user with the given "other" user using
      * Pearson correlation - simply calls computeSimilarity method
@@ -64,7 +235,225 @@ public class User {
      * @return similarity score
      */
     public double computeSimilarity(User otherUser) {
-        return movieRatings.computeCorrelation(otherUser.movieRatings);
+        UserRatings mine = sortedRatings();
+        UserRatings other = otherUser.sortedRatings();
+        // compressed users: accumulate the sums while decoding, without copying the co-rated ratings
+        if (mine instanceof CompressedRatings)
+            return ((CompressedRatings) mine).pearson(other);
+        if (other instanceof CompressedRatings)
+            return ((CompressedRatings) other).pearson(mine);
+        // sparse x dense and dense x dense: read the heavy user's ratings from the dense vector instead of merging
+        if (mine instanceof DenseRatings)
+            return ((DenseRatings) mine).pearson(other);
+        if (other instanceof DenseRatings)
+            return ((DenseRatings) other).pearson(mine);
+        // sparse x sparse: light users go through the linked lists
+        if (movieRatings != null && otherUser.movieRatings != null
+                && (mine.size() < HEAVY_USER_RATINGS || other.size() < HEAVY_USER_RATINGS))
+            return movieRatings.computeCorrelation(otherUser.movieRatings);
+        // heavy or off-heap users: merge-join the sorted ratings, then run the (possibly SIMD) kernel
+        // into this thread's scratch arrays, so that no garbage is made per pair
+        int max = Math.min(mine.size(), other.size());
+        double[][] scratch = SCRATCH.get();
+        if (scratch[0].length < max) {
+            scratch[0] = new double[max];
+            scratch[1] = new double[max];
+        }
+        int n = mine.intersect(other, scratch[0], scratch[1]);
+        return CorrelationKernels.get().pearson(scratch[0], scratch[1], n);
+    }
+
+    /**
+     * Computes the similarity of this user with the given "other" user using
+     * Pearson correlation over the movies both rated within the time window of the options,
+     * each pair weighted by the time decay of both ratings.
+     * Without a time window or decay, the same as computeSimilarity(otherUser).
+     *
+     * @param otherUser a user to compare the current user with
+     * @param options time window and decay
+     * @return similarity score, NaN if the users have no timestamped ratings in common
+     */
+    public double computeSimilarity(User otherUser, RecommendationOptions options) {
+        if (!options.usesTime())
+            return computeSimilarity(otherUser);
+        if (timeline == null || otherUser.timeline == null)
+            return Double.NaN;
+        RatingTimeline.Window mine = timeline.window(options.getFromTime(), options.getToTime());
+        RatingTimeline.Window theirs = otherUser.timeline.window(options.getFromTime(), options.getToTime());
+        UserRatings myRatings = sortedRatings();
+        UserRatings theirRatings = otherUser.sortedRatings();
+        double n = 0, sumx = 0, sumy = 0, sumx2 = 0, sumy2 = 0, sumxy = 0;
+        int i = 0, j = 0;
+        while (i < mine.entries.length && j < theirs.entries.length) {
+            int a = mine.movieIdAt(i);
+            int b = theirs.movieIdAt(j);
+            if (a < b)
+                i++;
+            else if (a > b)
+                j++;
+            else {
+                double w = options.weight(mine.timeAt(i)) * options.weight(theirs.timeAt(j));
+                double x = theirRatings.getRating(a);
+                double y = myRatings.getRating(a);
+                n += w;
+                sumx += w * x;
+                sumy += w * y;
+                sumx2 += w * x * x;
+                sumy2 += w * y * y;
+                sumxy += w * x * y;
+                i++;
+                j++;
+            }
+        }
+        return CorrelationKernel.fromSums(n, sumx, sumy, sumx2, sumy2, sumxy);
+    }
+
+    /**
+     * Returns the ratings in the order of getMovieIds, in one pass instead of one getRating per movie.
+     * If a movie was inserted twice, every occurrence gets the rating getRating returns for it.
+     * @return ratings, best first
+     */
+    double[] rankedRatings() {
+        UserRatings s = sortedRatings();
+        int n = s.size();
+        double[] ratings = new double[n];
+        for (int i = 1; i < n; i++) {
+            if (s.movieIdAt(i) == s.movieIdAt(i - 1)) {
+                int[] ids = getMovieIds();
+                for (int k = 0; k < n; k++)
+                    ratings[k] = getRating(ids[k]);
+                return ratings;
+            }
+        }
+        if (movieRatings == null) {
+            int[] positions = s.rankedPositions();
+            for (int k = 0; k < n; k++)
+                ratings[k] = s.ratingAt(positions[k]);
+            return ratings;
+        }
+        int k = 0;
+        for (RatingNode node = movieRatings.head(); node != null; node = node.next())
+            ratings[k++] = node.getMovieRating();
+        return ratings;
+    }
+
+    /** Returns when this user rated each movie, or null if no rating had a timestamp */
+    RatingTimeline timeline() {
+        return timeline;
+    }
+
+    /** Returns the number of ratings without building the sorted cache */
+    int numRatings() {
+        if (sorted != null)
+            return sorted.size();
+        int n = 0;
+        for (RatingNode node = movieRatings.head(); node != null; node = node.next())
+            n++;
+        return n;
+    }
+
+    /** Returns the estimated heap used by the RatingsList and its nodes (0 while off heap) */
+    long ratingsBytes() {
+        if (movieRatings == null)
+            return 0;
+        long node = MemoryReport.object(4 + 8 + MemoryReport.REFERENCE); // movieId, rating, next
+        return MemoryReport.object(MemoryReport.REFERENCE) + numRatings() * node;
+    }
+
+    /** Returns the estimated heap used by the sorted ratings (the cache, or the off-heap slice object) */
+    long cacheBytes() {
+        if (sorted instanceof SparseRatings)
+            return ((SparseRatings) sorted).getBytesUsed();
+        if (sorted instanceof DenseRatings)
+            return ((DenseRatings) sorted).getBytesUsed();
+        if (sorted instanceof CompressedRatings)
+            return 0; // counted by compressedBytes
+        return sorted == null ? 0 : MemoryReport.object(MemoryReport.REFERENCE + 8);
+    }
+
+    /** Returns the estimated heap used by the compressed ratings (0 if not compressed) */
+    long compressedBytes() {
+        return sorted instanceof CompressedRatings ? ((CompressedRatings) sorted).getBytesUsed() : 0;
+    }
+
+    /** Returns this user's ratings sorted by movie id */
+    UserRatings sortedRatings() {
+        UserRatings s = sorted;
+        if (s == null) {
+            s = adapt(SparseRatings.of(movieRatings));
+            sorted = s;
+        }
+        return s;
+    }
+
+    /** Picks the representation of the sorted ratings from their number: dense for heavy users */
+    private static UserRatings adapt(SparseRatings ratings) {
+        if (ratings.size() >= DENSE_USER_RATINGS && DenseRatings.canStore(ratings))
+            return DenseRatings.of(ratings);
+        return ratings;
+    }
+
+    /**
+     * Moves this user's ratings into the off-heap store and drops the RatingsList.
+     * Only done when every rating is a multiple of 0.5 and the list is in the order that
+     * loadRatings produces (by rating, then by decreasing movie id), so that getMovieIds
+     * and getFavoriteMovies return exactly what they returned before.
+     * @param store off-heap store
+     * @return true if the ratings are off the heap
+     */
+    boolean moveOffHeap(OffHeapRatingStore store) {
+        if (movieRatings == null)
+            return sorted instanceof OffHeapRatingStore.Slice;
+        if (!canPack())
+            return false;
+        sorted = store.add(sorted);
+        movieRatings = null;
+        return true;
+    }
+
+    /**
+     * Replaces this user's RatingsList by a delta and varint compressed copy (see CompressedRatings),
+     * under the same conditions as moveOffHeap. The list is rebuilt on the first change.
+     * @return true if the ratings are compressed
+     */
+    boolean compress() {
+        if (movieRatings == null)
+            return sorted instanceof CompressedRatings;
+        if (!canPack())
+            return false;
+        sorted = CompressedRatings.of(sorted);
+        movieRatings = null;
+        return true;
+    }
+
+    /** Checks that the list can be dropped and rebuilt from the sorted ratings alone */
+    private boolean canPack() {
+        UserRatings ratings = sortedRatings();
+        return OffHeapRatingStore.canStore(ratings) && Arrays.equals(ratings.rankedMovieIds(), movieRatings.getMovieIds());
+    }
+
+    /** Returns true if the ratings of this user are stored off the heap */
+    boolean isOffHeap() {
+        return sorted instanceof OffHeapRatingStore.Slice;
+    }
+
+    /** Returns true if the ratings of this user are compressed */
+    boolean isCompressed() {
+        return sorted instanceof CompressedRatings;
+    }
+
+    /** Rebuilds the RatingsList of a user whose ratings are off the heap or compressed */
+    private void thaw() {
+        if (movieRatings != null)
+            return;
+        UserRatings ratings = sorted;
+        int[] ranked = ratings.rankedMovieIds();
+        RatingsList list = new RatingsList();
+        // inserting from the lowest ranked movie makes every insert stop at the head
+        for (int i = ranked.length - 1; i >= 0; i--)
+            list.insertByRating(ranked[i], ratings.getRating(ranked[i]));
+        movieRatings = list;
+        sorted = null;
     }
     /**
      * Changes the rating for the given movie to newRating
@@ -72,7 +461,22 @@ public class User {
      * @param newRating new rating of the movie
      */
     public void setRating(int movieId, int newRating) {
+        setRating(movieId, (double) newRating);
+    }
+
+    /** Changes the rating for the given movie to newRating, which may be a half star */
+    void setRating(int movieId, double newRating) {
+        thaw();
         movieRatings.setRating(movieId, newRating);
+        sorted = null;
+    }
+
+    /** Changes the rating for the given movie to newRating, and its time to the given timestamp */
+    void setRating(int movieId, double newRating, long timestamp) {
+        setRating(movieId, newRating);
+        if (timeline == null)
+            timeline = new RatingTimeline();
+        timeline.replace(movieId, timestamp);
     }
 
     /**
@@ -81,6 +485,8 @@ public class User {
      * @return rating of the given movie
      */
     public double getRating(int movieId) {
+        if (movieRatings == null)
+            return sorted.getRating(movieId);
         return movieRatings.getRating(movieId);
     }
 
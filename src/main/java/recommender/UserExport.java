@@ -0,0 +1,158 @@
+package recommender;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Streams the ratings of all users into one file, formatting blocks of users in parallel.
+ *  Worker threads each format a block of BLOCK_USERS consecutive users into their own byte buffer;
+ *  the calling thread takes the blocks in user id order (an ordered merge), copies them into a
+ *  large direct buffer and writes that to the file channel when it is full. At most
+ *  2 x threads blocks are pending at a time, so memory stays bounded whatever the number of users,
+ *  and the output is the same whatever the number of threads.
+ */
+public class UserExport {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 22; // 4 MB direct buffer
+    static final int BLOCK_USERS = 64;
+
+    private UserExport() {
+    }
+
+    /**
+     * Writes the given users to a file
+     * @param users array of users; index is the user id, null entries are skipped
+     * @param filename name of the output file (created or truncated)
+     * @param format output format
+     * @param threads number of formatting threads; 1 formats on the calling thread
+     * @throws IOException if the file can not be written
+     */
+    public static void write(User[] users, String filename, UserExportFormat format, int threads) throws IOException {
+        int n = 0;
+        for (User user : users) {
+            if (user != null)
+                n++;
+        }
+        int[] ids = new int[n];
+        n = 0;
+        for (int id = 0; id < users.length; id++) {
+            if (users[id] != null)
+                ids[n++] = id;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+            SinkFormat.Output header = new SinkFormat.Output();
+            format.appendHeader(header);
+            copy(header, buffer, channel);
+
+            int numBlocks = (ids.length + BLOCK_USERS - 1) / BLOCK_USERS;
+            if (threads <= 1) {
+                SinkFormat.Output out = new SinkFormat.Output();
+                for (int b = 0; b < numBlocks; b++) {
+                    out.reset();
+                    format.appendBlock(out, users, ids, b * BLOCK_USERS, Math.min(ids.length, (b + 1) * BLOCK_USERS));
+                    copy(out, buffer, channel);
+                }
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    ArrayDeque<Future<SinkFormat.Output>> pending = new ArrayDeque<>();
+                    int next = 0;
+                    while (next < numBlocks || !pending.isEmpty()) {
+                        while (next < numBlocks && pending.size() < 2 * threads) {
+                            int from = next * BLOCK_USERS;
+                            int to = Math.min(ids.length, from + BLOCK_USERS);
+                            pending.add(pool.submit(() -> {
+                                SinkFormat.Output out = new SinkFormat.Output();
+                                format.appendBlock(out, users, ids, from, to);
+                                return out;
+                            }));
+                            next++;
+                        }
+                        copy(pending.poll().get(), buffer, channel); // blocks in submission order
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while exporting users");
+                } catch (ExecutionException e) {
+                    throw new IOException("Formatting users failed", e.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+            SinkFormat.Output trailer = new SinkFormat.Output();
+            format.appendTrailer(trailer);
+            copy(trailer, buffer, channel);
+            flush(buffer, channel);
+        }
+    }
+
+    /** Copies formatted bytes into the buffer, writing the buffer out each time it fills up */
+    private static void copy(SinkFormat.Output out, ByteBuffer buffer, FileChannel channel) throws IOException {
+        int from = 0;
+        while (from < out.size()) {
+            from = out.copyTo(buffer, from);
+            if (!buffer.hasRemaining())
+                flush(buffer, channel);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Reads a file written in the COLUMNAR format back into users
+     * @param filename name of the file
+     * @return array of users; index is the user id
+     * @throws IOException if the file can not be read or is not in the COLUMNAR format
+     */
+    public static User[] readColumnar(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            if (in.readInt() != UserExportFormat.MAGIC || in.readInt() != UserExportFormat.VERSION)
+                throw new IOException("Not a columnar user export");
+            User[] users = new User[0];
+            int numUsers;
+            while ((numUsers = in.readInt()) > 0) {
+                int numRatings = in.readInt();
+                boolean halfStars = in.readByte() == 0;
+                int[] ids = new int[numUsers];
+                int[] counts = new int[numUsers];
+                int[] movieIds = new int[numRatings];
+                for (int u = 0; u < numUsers; u++)
+                    ids[u] = in.readInt();
+                for (int u = 0; u < numUsers; u++)
+                    counts[u] = in.readInt();
+                for (int i = 0; i < numRatings; i++)
+                    movieIds[i] = in.readInt();
+                double[] ratings = new double[numRatings];
+                for (int i = 0; i < numRatings; i++)
+                    ratings[i] = halfStars ? in.readByte() * 0.5 : in.readDouble();
+                if (ids[numUsers - 1] >= users.length)
+                    users = Arrays.copyOf(users, Math.max(ids[numUsers - 1] + 1, users.length * 2));
+                int start = 0;
+                for (int u = 0; u < numUsers; u++) {
+                    int[] order = new int[counts[u]];
+                    for (int i = 0; i < order.length; i++)
+                        order[i] = start + i;
+                    users[ids[u]] = new User(ids[u], RatingsList.ofRanked(movieIds, ratings, order));
+                    start += counts[u];
+                }
+            }
+            return users;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package recommender;
+
+import java.nio.charset.StandardCharsets;
+
+/** Formats for exporting the ratings of all users (see MovieRecommender.exportUsers).
+ *  Users are formatted in blocks of consecutive users; a format writes a header, then every
+ *  block, then a trailer. Blocks are independent, so they can be formatted in parallel.
+ */
+public enum UserExportFormat {
+    /** The format of printUsers: one line per user, "(userId) movieId:rating; movieId:rating; ",
+     *  movies best rated first, ratings printed like Double.toString. */
+    TEXT {
+        void appendHeader(SinkFormat.Output out) {
+        }
+
+        void appendBlock(SinkFormat.Output out, User[] users, int[] ids, int from, int to) {
+            for (int u = from; u < to; u++) {
+                User user = users[ids[u]];
+                int[] movieIds = user.getMovieIds();
+                double[] ratings = user.rankedRatings();
+                out.write('(');
+                writeDecimal(out, user.getId());
+                out.write(')');
+                out.write(' ');
+                for (int i = 0; i < movieIds.length; i++) {
+                    writeDecimal(out, movieIds[i]);
+                    out.write(':');
+                    double halfStars = ratings[i] * 2;
+                    if (halfStars == Math.rint(halfStars) && halfStars >= 0 && halfStars <= 10)
+                        out.writeBytes(HALF_STARS[(int) halfStars]);
+                    else
+                        out.writeAscii(Double.toString(ratings[i]));
+                    out.write(';');
+                    out.write(' ');
+                }
+                out.writeBytes(LINE_SEPARATOR);
+            }
+        }
+
+        void appendTrailer(SinkFormat.Output out) {
+        }
+    },
+    /** A binary, column-oriented format (big-endian):
+     *      header: int magic "UEXP", int version
+     *      blocks: int numUsers, int numRatings, byte ratingEncoding,
+     *              numUsers x int userId, numUsers x int count,
+     *              numRatings x int movieId (each user's movies best rated first),
+     *              numRatings ratings: one byte of half stars each if ratingEncoding is 0,
+     *              otherwise one double each
+     *      trailer: int 0 (a block without users)
+     *  Each column of a block is contiguous, so a reader can skip the ratings or load a column
+     *  straight into an array. Read it back with UserExport.readColumnar. */
+    COLUMNAR {
+        void appendHeader(SinkFormat.Output out) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void appendBlock(SinkFormat.Output out, User[] users, int[] ids, int from, int to) {
+            int[][] movieIds = new int[to - from][];
+            double[][] ratings = new double[to - from][];
+            int numRatings = 0;
+            boolean halfStars = true;
+            for (int u = from; u < to; u++) {
+                movieIds[u - from] = users[ids[u]].getMovieIds();
+                ratings[u - from] = users[ids[u]].rankedRatings();
+                numRatings += movieIds[u - from].length;
+                for (double r : ratings[u - from]) {
+                    if (r * 2 != Math.rint(r * 2) || r < 0 || r > 5)
+                        halfStars = false;
+                }
+            }
+            out.writeInt(to - from);
+            out.writeInt(numRatings);
+            out.write(halfStars ? 0 : 1);
+            for (int u = from; u < to; u++)
+                out.writeInt(ids[u]);
+            for (int[] ofUser : movieIds)
+                out.writeInt(ofUser.length);
+            for (int[] ofUser : movieIds) {
+                for (int movieId : ofUser)
+                    out.writeInt(movieId);
+            }
+            for (double[] ofUser : ratings) {
+                for (double r : ofUser) {
+                    if (halfStars)
+                        out.write((int) (r * 2));
+                    else
+                        out.writeDouble(r);
+                }
+            }
+        }
+
+        void appendTrailer(SinkFormat.Output out) {
+            out.writeInt(0);
+        }
+    };
+
+    static final int MAGIC = 0x55455850; // "UEXP"
+    static final int VERSION = 1;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] HALF_STARS = new byte[11][]; // Double.toString of 0, 0.5, ..., 5
+
+    static {
+        for (int h = 0; h <= 10; h++)
+            HALF_STARS[h] = Double.toString(h * 0.5).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Appends what comes before the first block */
+    abstract void appendHeader(SinkFormat.Output out);
+
+    /**
+     * Appends the users users[ids[from]] to users[ids[to - 1]]
+     * @param out where to append
+     * @param users array of users; index is the user id
+     * @param ids ids of the users to export, ascending
+     * @param from first index in ids, inclusive
+     * @param to last index in ids, exclusive
+     */
+    abstract void appendBlock(SinkFormat.Output out, User[] users, int[] ids, int from, int to);
+
+    /** Appends what comes after the last block */
+    abstract void appendTrailer(SinkFormat.Output out);
+
+    /** Writes an int in decimal without creating a String */
+    private static void writeDecimal(SinkFormat.Output out, int value) {
+        if (value < 0) {
+            out.writeAscii(Integer.toString(value));
+            return;
+        }
+        byte[] digits = new byte[10];
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (n > 0)
+            out.write(digits[--n]);
+    }
+}
@@ -0,0 +1,139 @@
+package recommender;
+
+import java.util.Arrays;
+
+/** Read access to one user's ratings in increasing movie id order.
+ *  Implemented by SparseRatings (heap arrays) and by OffHeapRatingStore's flyweight slices,
+ *  so similarity and lookups work the same way whatever the storage is.
+ */
+interface UserRatings {
+
+    /** Returns the number of ratings */
+    int size();
+
+    /** Returns the i-th smallest movie id */
+    int movieIdAt(int i);
+
+    /** Returns the rating of movieIdAt(i) */
+    double ratingAt(int i);
+
+    /**
+     * Copies the movie ids, in increasing order, into the given array
+     * @param ids output array, at least size() long
+     */
+    default void copyMovieIds(int[] ids) {
+        int n = size();
+        for (int i = 0; i < n; i++)
+            ids[i] = movieIdAt(i);
+    }
+
+    /**
+     * Returns the position of the given movie, or a negative number if it is not rated
+     * @param movieId id of the movie
+     * @return index i such that movieIdAt(i) == movieId, or a negative number
+     */
+    default int indexOf(int movieId) {
+        int lo = 0, hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = movieIdAt(mid);
+            if (id < movieId)
+                lo = mid + 1;
+            else if (id > movieId)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Returns the rating for a given movie, or -1 if the movie is not rated
+     * @param movieId movie id
+     * @return rating of the movie
+     */
+    default double getRating(int movieId) {
+        int i = indexOf(movieId);
+        return i >= 0 ? ratingAt(i) : -1;
+    }
+
+    /**
+     * Merge-joins these ratings with another user's and copies the ratings of movies
+     * rated by both into x (this user's ratings) and y (the other user's ratings).
+     * @param other another user's ratings
+     * @param x output array, at least min(size(), other.size()) long
+     * @param y output array, at least min(size(), other.size()) long
+     * @return number of co-rated movies written to x and y
+     */
+    default int intersect(UserRatings other, double[] x, double[] y) {
+        int na = size();
+        int nb = other.size();
+        int i = 0, j = 0, n = 0;
+        while (i < na && j < nb) {
+            int a = movieIdAt(i);
+            int b = other.movieIdAt(j);
+            if (a < b)
+                i++;
+            else if (a > b)
+                j++;
+            else {
+                x[n] = ratingAt(i++);
+                y[n] = other.ratingAt(j++);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the movie ids ordered by rating (highest first), and by decreasing movie id
+     * for equal ratings. This is the order of a RatingsList built by inserting the ratings
+     * in increasing movie id order, as loadRatings does.
+     * @return movie ids in rank order
+     */
+    default int[] rankedMovieIds() {
+        int[] positions = rankedPositions();
+        int[] ids = new int[positions.length];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = movieIdAt(positions[i]);
+        return ids;
+    }
+
+    /**
+     * Returns the positions (indexes for movieIdAt and ratingAt) in the order of rankedMovieIds
+     * @return positions in rank order
+     */
+    default int[] rankedPositions() {
+        int n = size();
+        // ratings are normally half stars: counting sort over the 11 values 0, 0.5, ..., 5
+        int[] start = new int[11];
+        for (int i = 0; i < n; i++) {
+            double halfStars = ratingAt(i) * 2;
+            if (halfStars != Math.rint(halfStars) || halfStars < 0 || halfStars > 10)
+                return rankedByComparison();
+            start[(int) halfStars]++;
+        }
+        int pos = 0;
+        for (int b = 10; b >= 0; b--) {
+            int count = start[b];
+            start[b] = pos;
+            pos += count;
+        }
+        int[] positions = new int[n];
+        for (int i = n - 1; i >= 0; i--)
+            positions[start[(int) (ratingAt(i) * 2)]++] = i;
+        return positions;
+    }
+
+    private int[] rankedByComparison() {
+        int n = size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = n - 1 - i; // decreasing movie id, then a stable sort by rating
+        Arrays.sort(order, (a, b) -> Double.compare(ratingAt(b), ratingAt(a)));
+        int[] positions = new int[n];
+        for (int i = 0; i < n; i++)
+            positions[i] = order[i];
+        return positions;
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.RatingsList;
+import recommender.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Test file for the dense representation of heavy users: every kernel must give the same similarity. */
+public class AdaptiveRatingsTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testKernelsMatchComputeCorrelation() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        List<User> heavy = new ArrayList<>();
+        List<User> light = new ArrayList<>();
+        for (int id = 1; id <= 671; id++) {
+            User user = recommender.getUser(id);
+            if (user.getMovieIds().length >= 1000)
+                heavy.add(user);
+            else if (light.size() < 20)
+                light.add(user);
+        }
+        Assert.assertTrue(heavy.size() >= 2);
+        for (User a : heavy) {
+            for (User b : heavy) // dense x dense
+                assertSameSimilarity(a, b);
+            for (User b : light) { // dense x sparse, both ways
+                assertSameSimilarity(a, b);
+                assertSameSimilarity(b, a);
+            }
+        }
+    }
+
+    @Test
+    public void testChangeKeepsDenseUserConsistent() {
+        User[] users = new User[3];
+        users[1] = new User(1);
+        users[2] = new User(2);
+        for (int movieId = 1; movieId <= 1500; movieId++) {
+            users[1].insert(movieId * 3, movieId % 10 * 0.5 + 0.5);
+            if (movieId % 7 == 0)
+                users[2].insert(movieId * 3, 5 - movieId % 9 * 0.5);
+        }
+        assertSameSimilarity(users[1], users[2]);
+        Assert.assertEquals(-1, users[1].getRating(4), 0);
+
+        users[1].setRating(21, 1);
+        users[1].insert(4, 5);
+        Assert.assertEquals(1.0, users[1].getRating(21), 0);
+        Assert.assertEquals(5.0, users[1].getRating(4), 0);
+        assertSameSimilarity(users[1], users[2]);
+    }
+
+    private static void assertSameSimilarity(User a, User b) {
+        double expected = list(a).computeCorrelation(list(b));
+        Assert.assertEquals("users " + a.getId() + " and " + b.getId(), expected, a.computeSimilarity(b), 0);
+    }
+
+    private static RatingsList list(User user) {
+        RatingsList list = new RatingsList();
+        for (int movieId : user.getMovieIds())
+            list.insertByRating(movieId, user.getRating(movieId));
+        return list;
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.CancellationToken;
+import recommender.MovieRecommender;
+import recommender.MovieTitles;
+import recommender.NeighbourSearchResult;
+import recommender.RecommendationOptions;
+import recommender.RecommendationSink;
+import recommender.TitleFileSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Test file for the neighbour search with a time budget and a cancellation token. */
+public class AnytimeSearchTest {
+    public static final RecommendationOptions DEFAULT = RecommendationOptions.DEFAULT;
+
+    private static MovieRecommender load() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        return recommender;
+    }
+
+    @Test
+    public void testFullBudgetGivesExactAnswer() throws IOException {
+        MovieRecommender recommender = load();
+        for (int userId : new int[] {1, 3, 15, 100, 547}) {
+            NeighbourSearchResult result = recommender.findMostSimilarUser(userId, DEFAULT, 60000, null);
+            Assert.assertTrue(result.isComplete());
+            Assert.assertEquals(670, result.getCandidates());
+            Assert.assertEquals(1.0, result.getFractionEvaluated(), 0);
+            Assert.assertEquals(recommender.findMostSimilarUser(userId).getId(), result.getUser().getId());
+        }
+
+        File actual = File.createTempFile("anytimeRecommendations", ".txt");
+        actual.deleteOnExit();
+        try (TitleFileSink sink = new TitleFileSink(actual.getPath())) {
+            Assert.assertTrue(recommender.findRecommendations(3, 5, sink, DEFAULT, 60000, null).isComplete());
+        }
+        Assert.assertArrayEquals(Files.readAllBytes(Paths.get("src", "test", "expectedRecommendations")),
+                Files.readAllBytes(actual.toPath()));
+    }
+
+    @Test
+    public void testStopsEarly() {
+        MovieRecommender recommender = load();
+        NeighbourSearchResult expired = recommender.findMostSimilarUser(3, DEFAULT, 0, null);
+        Assert.assertFalse(expired.isComplete());
+        Assert.assertFalse(expired.isCancelled());
+        Assert.assertEquals(16, expired.getEvaluated());
+        Assert.assertNotNull(expired.getUser()); // the most active users are tried first
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        NeighbourSearchResult cancelled = recommender.findMostSimilarUser(3, DEFAULT, 60000, token);
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertTrue(cancelled.getFractionEvaluated() < 0.1);
+    }
+
+    @Test
+    public void testUnknownUser() {
+        MovieRecommender recommender = load();
+        for (int userId : new int[] {0, 672, -1}) {
+            NeighbourSearchResult result = recommender.findMostSimilarUser(userId, DEFAULT, 60000, null);
+            Assert.assertNull(result.getUser());
+            Assert.assertEquals(0, result.getCandidates());
+            Assert.assertTrue(result.isComplete());
+        }
+    }
+
+    @Test
+    public void testSinkFailureAndNewUsers() {
+        MovieRecommender recommender = load();
+        RecommendationSink failing = new RecommendationSink() {
+            public void write(int userId, int[] movieIds, MovieTitles titles) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            recommender.findRecommendations(3, 5, failing, DEFAULT, 60000, null);
+            Assert.fail("the sink failure must be reported");
+        } catch (IOException expected) {
+            Assert.assertEquals("disk full", expected.getMessage());
+        }
+
+        // a user added later is a candidate too
+        recommender.addRating(1000, 1, 4, 0);
+        NeighbourSearchResult result = recommender.findMostSimilarUser(3, DEFAULT, 60000, null);
+        Assert.assertEquals(671, result.getCandidates());
+        Assert.assertEquals(671, result.getEvaluated());
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/** Test file for loading the runs of a user's ratings in one pass. */
+public class BulkLoadTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testGroupedInputMatchesInsertByRating() throws IOException {
+        List<String> rows = Files.readAllLines(Path.of(RATINGS));
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        assertSameUsers(insertOneByOne(rows.subList(1, rows.size())), recommender);
+    }
+
+    @Test
+    public void testUnsortedInputFallsBack() throws IOException {
+        List<String> rows = Files.readAllLines(Path.of(RATINGS));
+        List<String> shuffled = new ArrayList<>(rows.subList(1, rows.size()));
+        Collections.shuffle(shuffled, new Random(3));
+        Path file = Files.createTempFile("ratings", ".csv");
+        file.toFile().deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        lines.add(rows.get(0));
+        lines.addAll(shuffled);
+        Files.write(file, lines);
+
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, file.toString());
+        assertSameUsers(insertOneByOne(shuffled), recommender);
+    }
+
+    @Test
+    public void testRunWithTiesAndDescendingTimes() throws IOException {
+        Path file = Files.createTempFile("ratings", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, List.of("6",
+                "1,10,4.0,900", "1,20,5.0,800", "1,30,4.0,700", "1,40,2.5,600",
+                "2,10,4.0,100", "1,50,4.0,500"));
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, file.toString());
+
+        User user = recommender.getUser(1);
+        Assert.assertArrayEquals(new int[] {20, 50, 30, 10, 40}, user.getMovieIds());
+        Assert.assertEquals(2.5, user.getRating(40), 0);
+        // the timeline was rebased to the earliest time of the first run, then extended
+        RecommendationOptions window = RecommendationOptions.DEFAULT.withTimeWindow(650, 850);
+        Assert.assertArrayEquals(new int[] {20}, user.getFavoriteMovies(5, window));
+    }
+
+    private static User[] insertOneByOne(List<String> rows) {
+        Map<Integer, User> users = new TreeMap<>();
+        int maxId = 0;
+        for (String row : rows) {
+            String[] columns = row.split(",");
+            int userId = Integer.parseInt(columns[0]);
+            maxId = Math.max(maxId, userId);
+            users.computeIfAbsent(userId, User::new)
+                    .insert(Integer.parseInt(columns[1]), Double.parseDouble(columns[2]), Long.parseLong(columns[3]));
+        }
+        User[] array = new User[maxId + 1];
+        users.forEach((id, user) -> array[id] = user);
+        return array;
+    }
+
+    private static void assertSameUsers(User[] expected, MovieRecommender recommender) {
+        RecommendationOptions window = RecommendationOptions.DEFAULT.withTimeWindow(1_000_000_000L, 1_200_000_000L);
+        for (int id = 1; id < expected.length; id++) {
+            User user = recommender.getUser(id);
+            if (expected[id] == null) {
+                Assert.assertNull(user);
+                continue;
+            }
+            Assert.assertArrayEquals("user " + id, expected[id].getMovieIds(), user.getMovieIds());
+            for (int movieId : user.getMovieIds())
+                Assert.assertEquals(expected[id].getRating(movieId), user.getRating(movieId), 0);
+            Assert.assertArrayEquals(expected[id].getFavoriteMovies(10), user.getFavoriteMovies(10));
+            Assert.assertArrayEquals(expected[id].getFavoriteMovies(10, window), user.getFavoriteMovies(10, window));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MemoryReport;
+import recommender.MovieRecommender;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Test file for compressed ratings: results must not depend on how the ratings are stored. */
+public class CompressedRatingsTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testSameResultsCompressed() throws IOException {
+        MovieRecommender plain = new MovieRecommender();
+        plain.loadData(MOVIES, RATINGS);
+        MovieRecommender compressed = new MovieRecommender();
+        compressed.compressRatings();
+        compressed.loadData(MOVIES, RATINGS);
+
+        for (int userId : new int[] {1, 3, 15, 100, 547}) {
+            Assert.assertEquals(plain.findMostSimilarUser(userId).getId(), compressed.findMostSimilarUser(userId).getId());
+            Assert.assertArrayEquals(plain.computeRecommendations(userId, 5, RecommendationOptions.DEFAULT),
+                    compressed.computeRecommendations(userId, 5, RecommendationOptions.DEFAULT));
+        }
+        User a = plain.getUser(15), b = plain.getUser(547);
+        Assert.assertEquals(a.computeSimilarity(b), compressed.getUser(15).computeSimilarity(compressed.getUser(547)), 0);
+        // one side compressed, the other a plain list
+        Assert.assertEquals(a.computeSimilarity(b), compressed.getUser(15).computeSimilarity(b), 0);
+        Assert.assertEquals(a.computeSimilarity(b), a.computeSimilarity(compressed.getUser(547)), 0);
+
+        File expected = File.createTempFile("plain", ".txt");
+        File actual = File.createTempFile("compressed", ".txt");
+        expected.deleteOnExit();
+        actual.deleteOnExit();
+        plain.printUsers(expected.getPath());
+        compressed.printUsers(actual.getPath());
+        Assert.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+
+        MemoryReport report = compressed.getMemoryReport();
+        Assert.assertEquals(0, report.getBytes("ratings (RatingsList nodes)"));
+        Assert.assertTrue(report.getBytes("compressed ratings") < 4 * report.getNumRatings());
+    }
+
+    @Test
+    public void testLookupsAcrossBlocksAndWideGaps() {
+        User[] users = new User[2];
+        users[1] = new User(1);
+        int[] ids = new int[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + i * i * 7; // gaps grow past one and two varint bytes
+            users[1].insert(ids[i], 0.5 + i % 10 * 0.5);
+        }
+        int[] before = users[1].getMovieIds();
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        Assert.assertEquals(1, recommender.compressRatings());
+
+        Assert.assertArrayEquals(before, users[1].getMovieIds());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(0.5 + i % 10 * 0.5, users[1].getRating(ids[i]), 0);
+            Assert.assertEquals(-1, users[1].getRating(ids[i] + 1), 0);
+        }
+        Assert.assertEquals(-1, users[1].getRating(0), 0);
+
+        users[1].setRating(ids[5], 4);
+        Assert.assertEquals(4.0, users[1].getRating(ids[5]), 0);
+        Assert.assertEquals(200, users[1].getMovieIds().length);
+    }
+}
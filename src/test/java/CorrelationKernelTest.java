@@ -0,0 +1,58 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.CorrelationKernel;
+import recommender.CorrelationKernels;
+import recommender.RatingsList;
+import recommender.User;
+
+/** Test file for the similarity kernels: they must agree with RatingsList.computeCorrelation. */
+public class CorrelationKernelTest {
+
+    @Test
+    public void testKernelsMatchComputeCorrelation() {
+        double[] x = {5, 5, 5, 3, 4, 1, 2.5, 3.5, 4.5};
+        double[] y = {4, 3.5, 2, 2, 4, 1, 3, 5, 0.5};
+        RatingsList list1 = new RatingsList();
+        RatingsList list2 = new RatingsList();
+        for (int i = 0; i < x.length; i++) {
+            list1.insertByRating(i + 1, x[i]);
+            list2.insertByRating(i + 1, y[i]);
+        }
+        double expected = list1.computeCorrelation(list2);
+        Assert.assertEquals(expected, CorrelationKernels.scalar().pearson(x, y, x.length), 1e-12);
+        Assert.assertEquals(expected, CorrelationKernels.get().pearson(x, y, x.length), 1e-12);
+    }
+
+    @Test
+    public void testDenseKernelSkipsUnratedMovies() {
+        // 0 means "not rated": only positions 1, 2, 4 and 6 are rated by both
+        double[] a = {0, 5, 3, 4, 2, 0, 1, 5, 4, 3, 0};
+        double[] b = {1, 4, 3, 0, 1, 2, 2, 0, 0, 0, 5};
+        double[] x = {5, 3, 2, 1};
+        double[] y = {4, 3, 1, 2};
+        for (CorrelationKernel kernel : new CorrelationKernel[] {CorrelationKernels.scalar(), CorrelationKernels.get()}) {
+            Assert.assertEquals(kernel.pearson(x, y, 4), kernel.pearsonDense(a, 0, b, 0, a.length), 1e-12);
+        }
+    }
+
+    @Test
+    public void testHeavyUsersSimilarity() {
+        User user1 = new User(1);
+        User user2 = new User(2);
+        RatingsList list1 = new RatingsList();
+        RatingsList list2 = new RatingsList();
+        for (int movieId = 1; movieId <= 300; movieId++) {
+            double r1 = 0.5 + (movieId * 7 % 10) * 0.5;
+            double r2 = 0.5 + (movieId * 3 % 10) * 0.5;
+            if (movieId % 3 != 0) {
+                user1.insert(movieId, r1);
+                list1.insertByRating(movieId, r1);
+            }
+            if (movieId % 5 != 0) {
+                user2.insert(movieId, r2);
+                list2.insertByRating(movieId, r2);
+            }
+        }
+        Assert.assertEquals(list1.computeCorrelation(list2), user1.computeSimilarity(user2), 1e-12);
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.DatasetGenerator;
+import recommender.MovieRecommender;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/** Test file for the synthetic data set generator. */
+public class DatasetGeneratorTest {
+    @Test
+    public void testFilesHaveTheInputFormat() throws IOException {
+        Path dir = Files.createTempDirectory("dataset");
+        String movies = dir.resolve("movies.csv").toString();
+        String ratings = dir.resolve("ratings.csv").toString();
+        DatasetGenerator generator = new DatasetGenerator().setNumUsers(200).setNumMovies(1000).setNumRatings(20000).setSeed(7);
+        generator.writeMovies(movies);
+        long written = generator.writeRatings(ratings);
+
+        List<String> movieLines = Files.readAllLines(dir.resolve("movies.csv"));
+        Assert.assertEquals("1000", movieLines.get(0));
+        Assert.assertEquals(1001, movieLines.size());
+        Assert.assertTrue(movieLines.get(1).matches("1,Movie 1 \\(\\d{4}\\),[A-Za-z|-]+"));
+
+        List<String> lines = Files.readAllLines(dir.resolve("ratings.csv"));
+        Assert.assertEquals(written, Long.parseLong(lines.get(0)));
+        Assert.assertEquals(written + 1, lines.size());
+        Assert.assertTrue(Math.abs(written - 20000) < 2000);
+        int previousUser = 0;
+        int previousMovie = 0;
+        long previousTime = 0;
+        int decreasing = 0; // times that are earlier than the user's previous rating
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split(",");
+            Assert.assertEquals(4, columns.length);
+            int user = Integer.parseInt(columns[0]);
+            int movie = Integer.parseInt(columns[1]);
+            double rating = Double.parseDouble(columns[2]);
+            Assert.assertTrue(user > previousUser || (user == previousUser && movie > previousMovie));
+            Assert.assertTrue(rating >= 0.5 && rating <= 5 && rating * 2 == Math.rint(rating * 2));
+            long time = Long.parseLong(columns[3]);
+            Assert.assertTrue(time >= DatasetGenerator.FIRST_TIME && time < DatasetGenerator.FIRST_TIME + DatasetGenerator.TIME_SPAN);
+            if (user == previousUser && time < previousTime)
+                decreasing++;
+            previousTime = time;
+            previousUser = user;
+            previousMovie = movie;
+        }
+        Assert.assertTrue("times must not follow the movie ids", decreasing > lines.size() / 4);
+
+        // same seed, same data; and the data loads
+        Path again = dir.resolve("again.csv");
+        generator.writeRatings(again.toString());
+        Assert.assertEquals(lines, Files.readAllLines(again));
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(movies, ratings);
+        Assert.assertEquals(written, recommender.getMovieStats().getNumRatings());
+        Assert.assertNotNull(recommender.findMostSimilarUser(1));
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.FactorModel;
+import recommender.MovieRecommender;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Test file for the latent-factor model. */
+public class FactorModelTest {
+    public static final int[] MOVIES1 = {1, 2, 3, 4, 5, 6, 7};
+    public static final double[] RATINGS1 = {5, 5, 2, 5, 4, 3, 4};
+    public static final int[] MOVIES2 = {2, 4, 7};
+    public static final double[] RATINGS2 = {4, 1, 2};
+    public static final int[] MOVIES3 = {1, 4, 5, 7};
+    public static final double[] RATINGS3 = {3, 2, 5, 1};
+
+    @Test
+    public void testTrainingReducesError() {
+        User[] users = createUsers();
+        double untrained = FactorModel.train(users, 4, 0, 2).rmse(users);
+        double trained = FactorModel.train(users, 4, 500, 2, 0.05f, 0.01f, 42).rmse(users);
+        Assert.assertTrue("Training should reduce the error: " + untrained + " -> " + trained, trained < untrained);
+    }
+
+    @Test
+    public void testRecommendSkipsSeenMovies() {
+        User[] users = createUsers();
+        FactorModel model = FactorModel.train(users, 4, 50, 2);
+        int[] recommended = model.recommend(users[2], 10);
+        // user 2 has not seen movies 1, 3, 5, 6
+        Assert.assertEquals(4, recommended.length);
+        for (int movieId : recommended) {
+            if (users[2].getRating(movieId) >= 0)
+                Assert.fail("Recommended a movie the user has already rated: " + movieId);
+        }
+        for (int i = 1; i < recommended.length; i++) {
+            Assert.assertTrue(model.predict(2, recommended[i - 1]) >= model.predict(2, recommended[i]));
+        }
+    }
+
+    @Test
+    public void testRecommendWithLargeN() {
+        User[] users = createUsers();
+        FactorModel model = FactorModel.train(users, 4, 50, 2);
+        Assert.assertArrayEquals(model.recommend(users[2], 10), model.recommend(users[2], Integer.MAX_VALUE));
+        Assert.assertArrayEquals(model.recommend(users[2], 10, MOVIES1), model.recommend(users[2], Integer.MAX_VALUE, MOVIES1));
+    }
+
+    @Test
+    public void testModelRecommendationsForUnknownUser() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        recommender.trainModel(4, 1);
+        File file = File.createTempFile("model", ".txt");
+        file.deleteOnExit();
+        recommender.findModelRecommendations(10000, 5, file.getPath());
+        // the best movies overall, like the neighbour path
+        Assert.assertEquals(5, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        User[] users = createUsers();
+        FactorModel model = FactorModel.train(users, 3, 20, 1);
+        File file = File.createTempFile("factors", ".bin");
+        file.deleteOnExit();
+        model.save(file.getPath());
+        FactorModel loaded = FactorModel.load(file.getPath());
+        Assert.assertEquals(model.getNumFactors(), loaded.getNumFactors());
+        for (int userId = 1; userId <= 3; userId++) {
+            for (int movieId = 1; movieId <= 7; movieId++) {
+                Assert.assertEquals(model.predict(userId, movieId), loaded.predict(userId, movieId), 0);
+            }
+        }
+    }
+
+    private static User[] createUsers() {
+        User[] users = new User[4];
+        users[1] = createUser(1, MOVIES1, RATINGS1);
+        users[2] = createUser(2, MOVIES2, RATINGS2);
+        users[3] = createUser(3, MOVIES3, RATINGS3);
+        return users;
+    }
+
+    private static User createUser(int userId, int[] movies, double[] ratings) {
+        User user = new User(userId);
+        for (int i = 0; i < movies.length; i++)
+            user.insert(movies[i], ratings[i]);
+        return user;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.GenreIndex;
+import recommender.MovieRecommender;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+import java.io.File;
+
+/** Test file for the genre index and genre-filtered recommendations. */
+public class GenreIndexTest {
+
+    @Test
+    public void testMasksAndLists() {
+        GenreIndex index = new GenreIndex(10);
+        index.add(1, "Adventure|Animation|Children");
+        index.add(2, "Comedy|Drama");
+        index.add(3, "Drama");
+        index.add(4, "(no genres listed)");
+
+        long drama = index.mask("Drama");
+        long comedyOrAnimation = index.mask("Comedy", "Animation");
+        Assert.assertEquals(1, Long.bitCount(drama));
+        Assert.assertTrue(index.matches(2, drama));
+        Assert.assertFalse(index.matches(1, drama));
+        Assert.assertTrue(index.matches(1, 0)); // no filter
+        Assert.assertEquals(0, index.mask("Western")); // unknown genre
+        Assert.assertArrayEquals(new int[] {2, 3}, index.getMovies(drama));
+        Assert.assertArrayEquals(new int[] {1, 2}, index.getMovies(comedyOrAnimation));
+        Assert.assertArrayEquals(new String[] {"Drama"}, index.getNames(drama));
+    }
+
+    @Test
+    public void testFavoriteMoviesInGenre() {
+        GenreIndex index = new GenreIndex(10);
+        index.add(1, "Comedy");
+        index.add(2, "Drama");
+        index.add(3, "Comedy|Drama");
+        index.add(4, "Drama");
+        User user = new User(1);
+        user.insert(1, 5);
+        user.insert(2, 5);
+        user.insert(3, 5);
+        user.insert(4, 4);
+
+        RecommendationOptions drama = RecommendationOptions.DEFAULT.withGenres(index.mask("Drama"));
+        Assert.assertArrayEquals(new int[] {3, 2}, user.getFavoriteMovies(5, drama, index));
+        Assert.assertArrayEquals(new int[] {3}, user.getFavoriteMovies(1, drama, index));
+    }
+
+    @Test
+    public void testLoadGenres() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        GenreIndex index = recommender.getGenres();
+        // 1,Toy Story (1995),Adventure|Animation|Children|Comedy|Fantasy
+        Assert.assertArrayEquals(new String[] {"Adventure", "Animation", "Children", "Comedy", "Fantasy"},
+                index.getNames(index.getMask(1)));
+        // 11,"American President, The (1995)",Comedy|Drama|Romance
+        Assert.assertEquals(index.mask("Comedy", "Drama", "Romance"), index.getMask(11));
+    }
+}
@@ -0,0 +1,53 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MemoryReport;
+import recommender.MovieRecommender;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+import java.io.File;
+
+/** Test file for the memory report. */
+public class MemoryReportTest {
+    @Test
+    public void testReportCountsStructures() {
+        User[] users = new User[10];
+        users[1] = new User(1);
+        users[1].insert(1, 5);
+        users[1].insert(2, 4);
+        users[3] = new User(3);
+        users[3].insert(1, 3, 1000);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        MemoryReport report = recommender.getMemoryReport();
+        Assert.assertEquals(3, report.getNumRatings());
+        Assert.assertEquals(2, report.getNumUsers());
+        Assert.assertEquals(16 + 10 * 4 + 0, report.getBytes("users array"));
+        Assert.assertEquals(3 * 32 + 2 * 16, report.getBytes("ratings (RatingsList nodes)"));
+        Assert.assertEquals(0, report.getBytes("sorted ratings caches"));
+        Assert.assertEquals(-1, report.getBytes("movie titles"));
+        Assert.assertTrue(report.toString().contains("(10 slots, 80.0% empty)"));
+    }
+
+    @Test
+    public void testReportAfterLoad() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        MemoryReport report = recommender.getMemoryReport();
+        Assert.assertEquals(100004, report.getNumRatings());
+        Assert.assertEquals(671, report.getNumUsers());
+        Assert.assertTrue(report.getBytes("movie titles") > 9000 * 20);
+        Assert.assertTrue(report.getBytesPerRating() > 32 && report.getBytesPerRating() < 200);
+        Assert.assertEquals(0, report.getOffHeapBytes());
+        Assert.assertEquals(-1, report.getBytes("result cache"));
+
+        recommender.setResultCache(100, 60_000);
+        long empty = recommender.getMemoryReport().getBytes("result cache");
+        Assert.assertTrue(empty > 0);
+        for (int userId = 1; userId <= 10; userId++)
+            recommender.computeRecommendations(userId, 5, RecommendationOptions.DEFAULT);
+        report = recommender.getMemoryReport();
+        Assert.assertTrue(report.getBytes("result cache") > empty + 10 * (16 + 5 * 4));
+        Assert.assertTrue(report.toString().contains("(100 slots, 90.0% empty)"));
+    }
+}
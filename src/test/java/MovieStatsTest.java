@@ -0,0 +1,101 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.MovieStats;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+import java.io.File;
+
+/** Test file for the per-movie statistics and the cold-start recommendations. */
+public class MovieStatsTest {
+    @Test
+    public void testIncrementalStats() {
+        MovieStats stats = new MovieStats(2);
+        stats.add(1, 5);
+        stats.add(1, 4);
+        stats.add(2, 1);
+        stats.add(7, 3); // grows past the expected largest id
+        Assert.assertEquals(2, stats.getCount(1));
+        Assert.assertEquals(4.5, stats.getMean(1), 0);
+        Assert.assertEquals(3.25, stats.getGlobalMean(), 0);
+        Assert.assertEquals(3, stats.getNumMovies());
+        Assert.assertTrue(Double.isNaN(stats.getMean(3)));
+
+        stats.setPriorWeight(2);
+        // (2 * 3.25 + 9) / (2 + 2)
+        Assert.assertEquals(3.875, stats.getBayesianAverage(1), 1e-12);
+        Assert.assertArrayEquals(new int[] {1, 7, 2}, stats.getTopMovies(5));
+
+        stats.update(1, 5, 0.5);
+        Assert.assertEquals(2.25, stats.getMean(1), 0);
+        Assert.assertArrayEquals(new int[] {7, 1}, stats.getTopMovies(2));
+    }
+
+    @Test
+    public void testRankingStalenessBound() {
+        MovieStats stats = new MovieStats(3);
+        stats.setPriorWeight(0); // scores are the plain means
+        for (int i = 0; i < 1000; i++) {
+            stats.add(1, 4);
+            stats.add(2, 3);
+        }
+        Assert.assertArrayEquals(new int[] {1, 2}, stats.getTopMovies(5));
+        // 2000 ratings: up to 2 changes are served from the previous ranking
+        stats.add(3, 5);
+        stats.add(3, 5);
+        Assert.assertArrayEquals(new int[] {1, 2}, stats.getTopMovies(5));
+        stats.add(3, 5);
+        Assert.assertArrayEquals(new int[] {3, 1, 2}, stats.getTopMovies(5));
+        stats.update(3, 5, 0.5); // mean of movie 3 drops to 3.5, within the bound
+        Assert.assertArrayEquals(new int[] {3, 1, 2}, stats.getTopMovies(5));
+        stats.setPriorWeight(0); // forces a rebuild
+        Assert.assertArrayEquals(new int[] {1, 3, 2}, stats.getTopMovies(5));
+    }
+
+    @Test
+    public void testColdStartRecommendations() {
+        User[] users = new User[5];
+        for (int userId = 1; userId <= 3; userId++) {
+            users[userId] = new User(userId);
+            users[userId].insert(10, 5);
+            users[userId].insert(20, 2);
+            users[userId].insert(30, 4);
+        }
+        users[4] = new User(4);
+        users[4].insert(10, 3);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        recommender.setColdStartThreshold(5);
+        Assert.assertArrayEquals(new int[] {30, 20}, recommender.computeRecommendations(4, 5, RecommendationOptions.DEFAULT));
+        Assert.assertArrayEquals(new int[] {10}, recommender.computeRecommendations(99, 1, RecommendationOptions.DEFAULT));
+
+        recommender.addRating(4, 30, 0.5, 0);
+        recommender.addRating(4, 10, 1, 0); // changes the existing rating
+        MovieStats stats = recommender.getMovieStats();
+        Assert.assertEquals(4, stats.getCount(30));
+        Assert.assertEquals(3.125, stats.getMean(30), 1e-12);
+        Assert.assertEquals(4, stats.getCount(10));
+        Assert.assertEquals(4.0, stats.getMean(10), 1e-12);
+        Assert.assertEquals(1.0, users[4].getRating(10), 0);
+    }
+
+    @Test
+    public void testStatsMatchLoadedRatings() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        MovieStats loaded = recommender.getMovieStats();
+        Assert.assertEquals(100004, loaded.getNumRatings());
+        recommender.setUsers(usersOf(recommender)); // statistics are recomputed from the users
+        MovieStats rebuilt = recommender.getMovieStats();
+        Assert.assertEquals(loaded.getNumMovies(), rebuilt.getNumMovies());
+        Assert.assertArrayEquals(loaded.getTopMovies(50), rebuilt.getTopMovies(50));
+    }
+
+    private static User[] usersOf(MovieRecommender recommender) {
+        User[] users = new User[700];
+        for (int id = 0; id < users.length; id++)
+            users[id] = recommender.getUser(id);
+        return users;
+    }
+}
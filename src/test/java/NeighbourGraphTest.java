@@ -0,0 +1,79 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.Neighbour;
+import recommender.NeighbourGraph;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Test file for the precomputed, memory-mapped neighbour graph. */
+public class NeighbourGraphTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testGraphAnswersLikeFullScan() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        File file = File.createTempFile("neighbours", ".bin");
+        file.deleteOnExit();
+        NeighbourGraph.build(recommender, 5, file.getPath());
+        Assert.assertEquals(24 + 672L * (4 + 12 * 5), file.length());
+
+        NeighbourGraph graph = NeighbourGraph.open(file.getPath());
+        Assert.assertEquals(5, graph.getK());
+        for (int userId : new int[] {1, 3, 15, 100, 547, 671}) {
+            Neighbour[] expected = recommender.findMostSimilarUsers(recommender.getUser(userId), 5);
+            Neighbour[] actual = graph.getNeighbours(userId);
+            Assert.assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                Assert.assertEquals(expected[i].getUserId(), actual[i].getUserId());
+                Assert.assertEquals(expected[i].getSimilarity(), actual[i].getSimilarity(), 0);
+            }
+            Assert.assertEquals(recommender.findMostSimilarUser(userId).getId(), graph.getMostSimilarUser(userId));
+        }
+        Assert.assertEquals(-1, graph.getMostSimilarUser(5000));
+
+        // rows split over many small mappings read the same as one mapping
+        NeighbourGraph chunked = NeighbourGraph.open(file.getPath(), 10 * (4 + 12 * 5) + 7);
+        Assert.assertEquals(file.length(), chunked.getBytesMapped());
+        for (int userId = 0; userId <= 671; userId++) {
+            Assert.assertEquals(graph.getMostSimilarUser(userId), chunked.getMostSimilarUser(userId));
+            Assert.assertEquals(graph.getNeighbours(userId).length, chunked.getNeighbours(userId).length);
+        }
+        Assert.assertEquals(graph.getNeighbours(671)[4].getSimilarity(), chunked.getNeighbours(671)[4].getSimilarity(), 0);
+
+        Assert.assertTrue(recommender.setNeighbourGraph(graph));
+        File actual = File.createTempFile("graphRecommendations", ".txt");
+        actual.deleteOnExit();
+        recommender.findRecommendations(3, 5, actual.getPath());
+        Assert.assertArrayEquals(Files.readAllBytes(Paths.get("src", "test", "expectedRecommendations")),
+                Files.readAllBytes(actual.toPath()));
+    }
+
+    @Test
+    public void testStaleGraphIsRefused() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        File file = File.createTempFile("neighbours", ".bin");
+        file.deleteOnExit();
+        NeighbourGraph.build(recommender, 1, file.getPath());
+        NeighbourGraph graph = NeighbourGraph.open(file.getPath());
+        Assert.assertTrue(recommender.setNeighbourGraph(graph));
+
+        recommender.addRating(3, 1, 4.5, 0);
+        Assert.assertTrue(graph.isStale(usersOf(recommender)));
+        Assert.assertFalse(recommender.setNeighbourGraph(graph));
+    }
+
+    private static User[] usersOf(MovieRecommender recommender) {
+        User[] users = new User[672];
+        for (int id = 0; id < users.length; id++)
+            users[id] = recommender.getUser(id);
+        return users;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Test file for off-heap rating storage: results must not depend on where the ratings live. */
+public class OffHeapStorageTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testSameResultsOffHeap() throws IOException {
+        MovieRecommender onHeap = new MovieRecommender();
+        onHeap.loadData(MOVIES, RATINGS);
+        MovieRecommender offHeap = new MovieRecommender();
+        offHeap.moveRatingsOffHeap();
+        offHeap.loadData(MOVIES, RATINGS);
+        Assert.assertEquals(100004, offHeap.getRatingStore().getNumRatings());
+        // chunks grow with the data instead of reserving a full chunk up front
+        Assert.assertTrue(offHeap.getRatingStore().getBytesAllocated() < 4 * offHeap.getRatingStore().getBytesUsed());
+
+        for (int userId : new int[] {1, 3, 15, 100, 547}) {
+            Assert.assertEquals(onHeap.findMostSimilarUser(userId).getId(), offHeap.findMostSimilarUser(userId).getId());
+        }
+
+        File expected = File.createTempFile("onheap", ".txt");
+        File actual = File.createTempFile("offheap", ".txt");
+        expected.deleteOnExit();
+        actual.deleteOnExit();
+        onHeap.printUsers(expected.getPath());
+        offHeap.printUsers(actual.getPath());
+        Assert.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
+    @Test
+    public void testChangeBringsUserBackOnHeap() {
+        User[] users = new User[3];
+        users[1] = new User(1);
+        users[2] = new User(2);
+        for (int movieId = 1; movieId <= 6; movieId++) {
+            users[1].insert(movieId, movieId % 5 + 1);
+            users[2].insert(movieId, 5 - movieId % 5);
+        }
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        int[] before = users[1].getMovieIds();
+        Assert.assertEquals(2, recommender.moveRatingsOffHeap());
+        Assert.assertArrayEquals(before, users[1].getMovieIds());
+        Assert.assertEquals(5.0, users[1].getRating(4), 0);
+
+        users[1].setRating(4, 1);
+        users[1].insert(7, 5);
+        Assert.assertEquals(1.0, users[1].getRating(4), 0);
+        Assert.assertEquals(5.0, users[1].getRating(7), 0);
+        Assert.assertEquals(7, users[1].getMovieIds().length);
+        Assert.assertFalse(Double.isNaN(users[1].computeSimilarity(users[2])));
+    }
+}
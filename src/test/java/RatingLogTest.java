@@ -0,0 +1,109 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+
+/** Test file for the durable rating log: replay, group commit and compaction. */
+public class RatingLogTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String BASE = "4\n1,10,4.0,100\n1,20,3.0,200\n2,10,5.0,300\n2,30,1.5,400\n";
+
+    @Test
+    public void testReplayAndCompaction() throws IOException, InterruptedException, ExecutionException {
+        Path dir = Files.createTempDirectory("ratinglog");
+        String ratings = dir.resolve("ratings.csv").toString();
+        String log = dir.resolve("ratings.log").toString();
+        Files.write(dir.resolve("ratings.csv"), BASE.getBytes(StandardCharsets.UTF_8));
+
+        MovieRecommender live = load(ratings);
+        Assert.assertEquals(0, live.openRatingLog(log));
+        // concurrent writers share forces
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            int userId = 3 + w;
+            writers[w] = new Thread(() -> {
+                for (int movieId = 1; movieId <= 25; movieId++)
+                    live.addRating(userId, movieId, movieId % 10 / 2.0 + 0.5, 1000 + movieId);
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        live.addRating(1, 10, 2.5, 500); // change an existing rating
+        live.closeRatingLog();
+        Assert.assertEquals(8 + 101 * 24, new File(log).length());
+
+        MovieRecommender restarted = load(ratings);
+        Assert.assertEquals(101, restarted.openRatingLog(log));
+        Assert.assertEquals(2.5, restarted.getUser(1).getRating(10), 0);
+        Assert.assertEquals(25, restarted.getUser(6).getMovieIds().length);
+        Assert.assertEquals(live.getUser(5).getRating(7), restarted.getUser(5).getRating(7), 0);
+
+        restarted.compactRatingLog(ratings).get();
+        restarted.addRating(2, 40, 4.5, 600);
+        restarted.closeRatingLog();
+        Assert.assertFalse(new File(log + ".compacting").exists());
+        Assert.assertTrue(Files.readAllLines(dir.resolve("ratings.csv")).contains("1,10,2.5,500"));
+
+        // a partly written record at the end of the log is ignored
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(new byte[] {0, 0, 0, 7, 0});
+        }
+        MovieRecommender compacted = load(ratings);
+        Assert.assertEquals(1, compacted.openRatingLog(log));
+        compacted.closeRatingLog();
+        Assert.assertEquals(4.5, compacted.getUser(2).getRating(40), 0);
+        Assert.assertEquals(2.5, compacted.getUser(1).getRating(10), 0);
+        Assert.assertEquals(105, compacted.getMovieStats().getNumRatings());
+        Assert.assertEquals(8 + 24, new File(log).length());
+    }
+
+    @Test
+    public void testConcurrentNewUsers() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("ratinglog");
+        String ratings = dir.resolve("ratings.csv").toString();
+        String log = dir.resolve("ratings.log").toString();
+        Files.write(dir.resolve("ratings.csv"), BASE.getBytes(StandardCharsets.UTF_8));
+
+        MovieRecommender live = load(ratings);
+        Assert.assertEquals(0, live.openRatingLog(log));
+        // every writer creates new users, so users grows while the others write
+        Thread[] writers = new Thread[8];
+        for (int w = 0; w < writers.length; w++) {
+            int first = 100 + w * 50;
+            writers[w] = new Thread(() -> {
+                for (int userId = first; userId < first + 50; userId++) {
+                    live.addRating(userId, 1, 4, userId);
+                    live.addRating(userId, 1, 3.5, userId + 1); // and change it right away
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        live.closeRatingLog();
+
+        MovieRecommender restarted = load(ratings);
+        Assert.assertEquals(800, restarted.openRatingLog(log));
+        restarted.closeRatingLog();
+        for (int userId = 100; userId < 500; userId++) {
+            Assert.assertEquals(3.5, live.getUser(userId).getRating(1), 0);
+            Assert.assertEquals(3.5, restarted.getUser(userId).getRating(1), 0);
+        }
+        Assert.assertEquals(400, live.getMovieStats().getCount(1));
+        Assert.assertEquals(4 + 400, live.getMovieStats().getNumRatings());
+    }
+
+    private static MovieRecommender load(String ratings) {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, ratings);
+        return recommender;
+    }
+}
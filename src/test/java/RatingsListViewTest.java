@@ -0,0 +1,79 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.RatingNode;
+import recommender.RatingsList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Test file for the lazy views and the linear-time copies of RatingsList. */
+public class RatingsListViewTest {
+    public static final int[] MOVIES = {1, 2, 3, 4, 5, 6, 7};
+    public static final double[] RATINGS = {4, 5, 1, 5, 3, 2, 3.5};
+    // After insertions: 4, 2, 1, 7, 5, 6, 3
+
+    @Test
+    public void testViews() {
+        RatingsList list = createList();
+        Assert.assertEquals(List.of(4, 2, 1), ids(list.prefixView(3)));
+        Assert.assertEquals(List.of(4, 2, 1, 7, 5, 6, 3), ids(list.prefixView(100)));
+        Assert.assertEquals(List.of(1, 7, 5), ids(list.ratingRangeView(3, 4)));
+        Assert.assertEquals(List.of(), ids(list.ratingRangeView(4.5, 4.9)));
+        Assert.assertEquals(List.of(3, 6, 5, 7, 1, 2, 4), ids(list.reversedView()));
+
+        // views are not copies: they share the nodes and see later changes
+        Assert.assertSame(list.head(), list.prefixView(1).iterator().next());
+        list.setRating(3, 5);
+        Assert.assertEquals(List.of(4, 3), ids(list.prefixView(2)));
+    }
+
+    @Test
+    public void testEagerCopiesMatchViews() {
+        RatingsList list = createList();
+        Assert.assertEquals(ids(list.prefixView(4)), ids(list.getNBestRankedMovies(4)));
+        Assert.assertEquals(ids(list.ratingRangeView(2, 4)), ids(list.sublist(2, 4)));
+        Assert.assertEquals(ids(list.reversedView()), ids(list.reverse(list.head())));
+    }
+
+    @Test
+    public void testReversedForEachRestoresTheList() {
+        RatingsList list = createList();
+        List<Integer> visited = new ArrayList<>();
+        list.reversedView().forEach(node -> visited.add(node.getMovieId()));
+        Assert.assertEquals(List.of(3, 6, 5, 7, 1, 2, 4), visited);
+        Assert.assertEquals(List.of(4, 2, 1, 7, 5, 6, 3), ids(list));
+        try {
+            list.reversedView().forEach(node -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(List.of(4, 2, 1, 7, 5, 6, 3), ids(list));
+    }
+
+    @Test
+    public void testReverseLongList() {
+        RatingsList list = new RatingsList();
+        int n = 200000; // deep enough to overflow the stack of a recursive reverse
+        for (int movieId = 1; movieId <= n; movieId++)
+            list.insertByRating(movieId, 5); // ties go to the front: O(1) each
+        RatingsList reversed = list.reverse(list.head());
+        Assert.assertEquals(1, reversed.head().getMovieId());
+        Assert.assertEquals(n, list.getNBestRankedMovies(n).getMovieIds().length);
+    }
+
+    private static RatingsList createList() {
+        RatingsList list = new RatingsList();
+        for (int i = 0; i < MOVIES.length; i++)
+            list.insertByRating(MOVIES[i], RATINGS[i]);
+        return list;
+    }
+
+    private static List<Integer> ids(Iterable<RatingNode> nodes) {
+        List<Integer> ids = new ArrayList<>();
+        for (RatingNode node : nodes)
+            ids.add(node.getMovieId());
+        return ids;
+    }
+}
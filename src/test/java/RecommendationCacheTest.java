@@ -0,0 +1,82 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.RecommendationCache;
+import recommender.RecommendationOptions;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Test file for the recommendation result cache. */
+public class RecommendationCacheTest {
+    public static final RecommendationOptions DEFAULT = RecommendationOptions.DEFAULT;
+
+    @Test
+    public void testHitsExpiryAndSizeBound() throws InterruptedException {
+        RecommendationCache cache = new RecommendationCache(2, 50);
+        AtomicInteger computed = new AtomicInteger();
+        cache.get(1, 5, DEFAULT, () -> new int[] {computed.incrementAndGet()});
+        Assert.assertArrayEquals(new int[] {1}, cache.get(1, 5, DEFAULT, () -> new int[] {computed.incrementAndGet()}));
+        // another num or options is another request
+        cache.get(1, 6, DEFAULT, () -> new int[] {computed.incrementAndGet()});
+        Assert.assertEquals(2, computed.get());
+        cache.get(2, 5, DEFAULT.withGenres(1), () -> new int[] {computed.incrementAndGet()});
+        Assert.assertEquals(2, cache.size()); // (1, 5) was the least recently used
+        Assert.assertEquals(1, cache.getHits());
+
+        cache.invalidate(2);
+        Assert.assertEquals(1, cache.size());
+        Thread.sleep(100);
+        Assert.assertArrayEquals(new int[] {4}, cache.get(1, 6, DEFAULT, () -> new int[] {computed.incrementAndGet()}));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneComputation() throws InterruptedException {
+        RecommendationCache cache = new RecommendationCache(10, 60000);
+        AtomicInteger computed = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        int[][] results = new int[threads.length][];
+        for (int t = 0; t < threads.length; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> results[index] = cache.get(7, 3, DEFAULT, () -> {
+                computed.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new int[] {42};
+            }));
+            threads[t].start();
+        }
+        started.await();
+        Thread.sleep(50); // let the other threads reach the cache
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(1, computed.get());
+        for (int[] result : results)
+            Assert.assertArrayEquals(new int[] {42}, result);
+    }
+
+    @Test
+    public void testRatingChangeInvalidatesUser() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        int[] uncached = recommender.computeRecommendations(3, 5, DEFAULT);
+        recommender.setResultCache(100, 60000);
+        Assert.assertArrayEquals(uncached, recommender.computeRecommendations(3, 5, DEFAULT));
+        Assert.assertArrayEquals(uncached, recommender.computeRecommendations(3, 5, DEFAULT));
+        Assert.assertEquals(1, recommender.getResultCache().getHits());
+
+        recommender.addRating(3, uncached[0], 2, 0); // the user has now seen the first recommendation
+        int[] updated = recommender.computeRecommendations(3, 5, DEFAULT);
+        Assert.assertEquals(2, recommender.getResultCache().getMisses());
+        for (int movieId : updated)
+            Assert.assertNotEquals(uncached[0], movieId);
+    }
+}
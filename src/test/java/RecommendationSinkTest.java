@@ -0,0 +1,123 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.AsyncSink;
+import recommender.BufferedFileSink;
+import recommender.MovieTitles;
+import recommender.RecommendationSink;
+import recommender.SinkFormat;
+import recommender.TitleFileSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/** Test file for the recommendation sinks. */
+public class RecommendationSinkTest {
+    public static final int[] MOVIES = {11, 2};
+    public static final MovieTitles TITLES = new MovieTitles.Builder()
+            .add(11, "American President, The (1995)")
+            .add(2, "Jumanji (1995)")
+            .add(5, "Old")
+            .add(7, "Say \"Hi\"")
+            .add(1, "Toy Story (1995)")
+            .add(29, "City of Lost Children, The (Cité des enfants perdus, La) (1995)")
+            .build();
+
+    @Test
+    public void testTitleFileSinkReplacesFile() throws IOException {
+        File file = tempFile();
+        try (RecommendationSink sink = new TitleFileSink(file.getPath())) {
+            sink.write(1, new int[] {5}, TITLES);
+            sink.write(2, MOVIES, TITLES);
+        }
+        Assert.assertEquals("American President, The (1995)\nJumanji (1995)\n", read(file));
+    }
+
+    @Test
+    public void testCsvFormat() throws IOException {
+        File file = tempFile();
+        try (RecommendationSink sink = new BufferedFileSink(file.getPath(), SinkFormat.CSV)) {
+            sink.write(3, MOVIES, TITLES);
+            sink.write(4, new int[0], TITLES);
+            sink.write(5, new int[] {7}, TITLES);
+        }
+        Assert.assertEquals("3,11,\"American President, The (1995)\"\n3,2,Jumanji (1995)\n5,7,\"Say \"\"Hi\"\"\"\n", read(file));
+    }
+
+    @Test
+    public void testJsonLinesThroughSmallBuffer() throws IOException {
+        File file = tempFile();
+        // the buffer is smaller than one line, so every user goes straight to the channel
+        try (RecommendationSink sink = new BufferedFileSink(file.getPath(), SinkFormat.JSON_LINES, 16)) {
+            sink.write(3, MOVIES, TITLES);
+            sink.write(4, new int[] {1, 29}, TITLES);
+        }
+        Assert.assertEquals("{\"userId\":3,\"movieIds\":[11,2],\"titles\":[\"American President, The (1995)\",\"Jumanji (1995)\"]}\n"
+                + "{\"userId\":4,\"movieIds\":[1,29],\"titles\":[\"Toy Story (1995)\","
+                + "\"City of Lost Children, The (Cité des enfants perdus, La) (1995)\"]}\n", read(file));
+    }
+
+    @Test
+    public void testTitleTable() {
+        Assert.assertEquals(6, TITLES.size());
+        Assert.assertEquals("Jumanji (1995)", TITLES.getTitle(2));
+        Assert.assertEquals("City of Lost Children, The (Cité des enfants perdus, La) (1995)", TITLES.getTitle(29));
+        Assert.assertNull(TITLES.getTitle(3));
+        Assert.assertEquals(1, TITLES.getMovieId(0)); // dense index follows movie id order
+    }
+
+    @Test
+    public void testAsyncSinkKeepsOrder() throws IOException {
+        File file = tempFile();
+        StringBuilder expected = new StringBuilder();
+        MovieTitles.Builder builder = new MovieTitles.Builder();
+        for (int userId = 100; userId >= 1; userId--)
+            builder.add(userId * 10, "Movie " + userId);
+        MovieTitles titles = builder.build();
+        try (RecommendationSink sink = new AsyncSink(new BufferedFileSink(file.getPath(), SinkFormat.CSV), 4)) {
+            for (int userId = 1; userId <= 100; userId++) {
+                sink.write(userId, new int[] {userId * 10}, titles);
+                expected.append(userId).append(',').append(userId * 10).append(",Movie ").append(userId).append('\n');
+            }
+        }
+        Assert.assertEquals(expected.toString(), read(file));
+    }
+
+    @Test(timeout = 10000)
+    public void testAsyncSinkReportsRuntimeExceptions() throws IOException {
+        RecommendationSink failing = new RecommendationSink() {
+            public void write(int userId, int[] movieIds, MovieTitles titles) {
+                throw new IllegalStateException("broken sink");
+            }
+
+            public void close() {
+            }
+        };
+        RecommendationSink sink = new AsyncSink(failing, 2);
+        int written = 0;
+        try {
+            for (; written < 100; written++)
+                sink.write(written, MOVIES, TITLES); // would block forever if the writer thread died
+            sink.close();
+            Assert.fail("the failure must be reported");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals("broken sink", expected.getMessage());
+        }
+        try {
+            sink.close();
+            Assert.fail("close must report the failure too");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("recommendations", ".txt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
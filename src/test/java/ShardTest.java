@@ -0,0 +1,117 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.MovieTitles;
+import recommender.Neighbour;
+import recommender.RecommendationOptions;
+import recommender.ShardCoordinator;
+import recommender.ShardWorker;
+import recommender.TitleFileSink;
+import recommender.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/** Test file for the sharded recommender: a coordinator over several shards must answer
+ *  like a single MovieRecommender holding all users. */
+public class ShardTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+    public static final int NUM_SHARDS = 3;
+
+    @Test
+    public void testShardsAnswerLikeOneRecommender() throws IOException {
+        MovieRecommender all = new MovieRecommender();
+        all.loadData(MOVIES, RATINGS);
+
+        ShardWorker[] workers = new ShardWorker[NUM_SHARDS];
+        int[] ports = new int[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            MovieRecommender shard = new MovieRecommender();
+            shard.setShard(i, NUM_SHARDS);
+            shard.loadData(MOVIES, RATINGS);
+            workers[i] = new ShardWorker(shard, 0);
+            ports[i] = workers[i].getPort();
+        }
+        try (ShardCoordinator coordinator = new ShardCoordinator(ports, all.getMovieTitles())) {
+            for (int userId : new int[] {1, 3, 15, 100, 547}) {
+                Neighbour best = coordinator.findMostSimilarUser(userId);
+                Assert.assertEquals(all.findMostSimilarUser(userId).getId(), best.getUserId());
+                Assert.assertArrayEquals(all.computeRecommendations(userId, 5, RecommendationOptions.DEFAULT), coordinator.computeRecommendations(userId, 5));
+            }
+            Assert.assertNull(coordinator.findMostSimilarUser(100000));
+
+            Neighbour[] top = coordinator.findMostSimilarUsers(3, 10);
+            Assert.assertEquals(10, top.length);
+            for (int i = 1; i < top.length; i++)
+                Assert.assertTrue(top[i - 1].isBetterThan(top[i]));
+
+            File actual = File.createTempFile("shardRecommendations", ".txt");
+            actual.deleteOnExit();
+            try (TitleFileSink sink = new TitleFileSink(actual.getPath())) {
+                coordinator.findRecommendations(3, 5, sink);
+            }
+            byte[] expected = Files.readAllBytes(Paths.get("src", "test", "expectedRecommendations"));
+            Assert.assertTrue(Arrays.equals(expected, Files.readAllBytes(actual.toPath())));
+        } finally {
+            for (ShardWorker worker : workers)
+                worker.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testStuckShardFailsTheQuery() throws IOException {
+        MovieTitles titles = new MovieTitles.Builder().build();
+        // accepts the connection but never answers
+        try (ServerSocket stuck = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ShardCoordinator coordinator = new ShardCoordinator(new int[] {stuck.getLocalPort()}, titles, 200)) {
+            try (Socket accepted = stuck.accept()) {
+                try {
+                    coordinator.findMostSimilarUser(1);
+                    Assert.fail("a stuck shard must fail the query");
+                } catch (IOException expected) {
+                    Assert.assertTrue(expected.getMessage().contains("did not answer"));
+                }
+                try {
+                    coordinator.computeRecommendations(1, 5);
+                    Assert.fail("the connection is closed after a timeout");
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testShardErrorFailsOnlyTheQuery() throws IOException {
+        // users 1 {1:5, 2:3, 3:4} and 2 {1:4, 2:2, 4:1}: user 2 has fewer than 10 ratings,
+        // so getFavoriteMovies(10) fails on the worker
+        User[] users = new User[3];
+        users[1] = new User(1);
+        users[1].insert(1, 5);
+        users[1].insert(2, 3);
+        users[1].insert(3, 4);
+        users[2] = new User(2);
+        users[2].insert(1, 4);
+        users[2].insert(2, 2);
+        users[2].insert(4, 1);
+        MovieRecommender shard = new MovieRecommender();
+        shard.setUsers(users);
+        try (ShardWorker worker = new ShardWorker(shard, 0);
+             ShardCoordinator coordinator = new ShardCoordinator(new int[] {worker.getPort()}, new MovieTitles.Builder().build())) {
+            try {
+                coordinator.computeRecommendations(1, 10);
+                Assert.fail("the worker's error must fail the query");
+            } catch (IOException expected) {
+                Assert.assertTrue(expected.getMessage().contains("failed"));
+            }
+            // the connection is still usable
+            Assert.assertEquals(2, coordinator.findMostSimilarUser(1).getUserId());
+        }
+    }
+}
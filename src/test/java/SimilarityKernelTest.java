@@ -0,0 +1,150 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.NeighbourSearchResult;
+import recommender.RecommendationOptions;
+import recommender.SimilarityKernel;
+import recommender.SimilarityKernels;
+import recommender.User;
+
+import java.io.File;
+
+/** Test file for the pluggable similarity kernels. */
+public class SimilarityKernelTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    /** Users 1 {1:5, 2:3, 3:4}, 2 {1:4, 2:2, 4:1} and 3 {5:3} */
+    private static MovieRecommender smallRecommender() {
+        User[] users = new User[4];
+        users[1] = new User(1);
+        users[1].insert(1, 5);
+        users[1].insert(2, 3);
+        users[1].insert(3, 4);
+        users[2] = new User(2);
+        users[2].insert(1, 4);
+        users[2].insert(2, 2);
+        users[2].insert(4, 1);
+        users[3] = new User(3);
+        users[3].insert(5, 3);
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        return recommender;
+    }
+
+    private static double similarity(MovieRecommender recommender, SimilarityKernel kernel, int a, int b) {
+        return kernel.prepare(recommender.getUser(a), recommender.getMovieStats()).similarity(recommender.getUser(b));
+    }
+
+    @Test
+    public void testKernelValues() {
+        MovieRecommender recommender = smallRecommender();
+        Assert.assertEquals(26 / Math.sqrt(50 * 21), similarity(recommender, SimilarityKernels.COSINE, 1, 2), 1e-12);
+        Assert.assertEquals(0.5, similarity(recommender, SimilarityKernels.JACCARD, 1, 2), 0);
+        Assert.assertEquals(1 - 1 / 20.25, similarity(recommender, SimilarityKernels.MSD, 1, 2), 1e-12);
+        // movie means 4.5 and 2.5: user 1 is 0.5 above both, user 2 0.5 below both
+        Assert.assertEquals(-1, similarity(recommender, SimilarityKernels.ADJUSTED_COSINE, 1, 2), 1e-12);
+        Assert.assertEquals(recommender.getUser(1).computeSimilarity(recommender.getUser(2)),
+                similarity(recommender, SimilarityKernels.PEARSON, 1, 2), 0);
+
+        // no movie in common
+        Assert.assertEquals(0, similarity(recommender, SimilarityKernels.COSINE, 1, 3), 0);
+        Assert.assertEquals(0, similarity(recommender, SimilarityKernels.JACCARD, 1, 3), 0);
+        Assert.assertTrue(Double.isNaN(similarity(recommender, SimilarityKernels.MSD, 1, 3)));
+        Assert.assertTrue(Double.isNaN(similarity(recommender, SimilarityKernels.ADJUSTED_COSINE, 1, 3)));
+    }
+
+    @Test
+    public void testFindMostSimilarUserWithKernels() {
+        MovieRecommender recommender = smallRecommender();
+        for (SimilarityKernel kernel : new SimilarityKernel[] {SimilarityKernels.COSINE, SimilarityKernels.JACCARD, SimilarityKernels.MSD}) {
+            RecommendationOptions options = RecommendationOptions.DEFAULT.withSimilarity(kernel);
+            Assert.assertEquals(2, recommender.findMostSimilarUser(1, options).getId());
+        }
+        // undefined similarities are skipped: only user 1 has a defined MSD with user 2
+        Assert.assertEquals(1, recommender.findMostSimilarUser(2, RecommendationOptions.DEFAULT.withSimilarity(SimilarityKernels.MSD)).getId());
+        Assert.assertNull(recommender.findMostSimilarUser(3, RecommendationOptions.DEFAULT.withSimilarity(SimilarityKernels.MSD)));
+    }
+
+    @Test
+    public void testPearsonKernelIsTheDefault() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        Assert.assertSame(SimilarityKernels.PEARSON, RecommendationOptions.DEFAULT.getSimilarity());
+        for (int id = 1; id <= 671; id += 67) {
+            SimilarityKernel.Query query = SimilarityKernels.PEARSON.prepare(recommender.getUser(id), recommender.getMovieStats());
+            for (int other = 1; other <= 671; other += 13)
+                Assert.assertEquals(recommender.getUser(id).computeSimilarity(recommender.getUser(other)),
+                        query.similarity(recommender.getUser(other)), 0);
+            User[] users = new User[672];
+            for (int other = 1; other < users.length; other++)
+                users[other] = recommender.getUser(other);
+            Assert.assertEquals(recommender.findMostSimilarUser(id).getId(), query.mostSimilar(users, id));
+        }
+    }
+
+    @Test
+    public void testAnytimeSearchUsesTheKernel() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        for (SimilarityKernel kernel : SimilarityKernels.all()) {
+            RecommendationOptions options = RecommendationOptions.DEFAULT.withSimilarity(kernel);
+            for (int id = 1; id <= 671; id += 134) {
+                NeighbourSearchResult result = recommender.findMostSimilarUser(id, options, 60_000, null);
+                Assert.assertTrue(result.isComplete());
+                Assert.assertSame(kernel.name(), recommender.findMostSimilarUser(id, options), result.getUser());
+            }
+        }
+    }
+
+    @Test
+    public void testKernelsOnCompressedRatings() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        int[][] expected = new int[SimilarityKernels.all().length][];
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1)
+                recommender.compressRatings();
+            SimilarityKernel[] kernels = SimilarityKernels.all();
+            for (int k = 0; k < kernels.length; k++) {
+                RecommendationOptions options = RecommendationOptions.DEFAULT.withSimilarity(kernels[k]);
+                int[] neighbours = new int[6];
+                for (int q = 0; q < neighbours.length; q++)
+                    neighbours[q] = recommender.findMostSimilarUser(1 + 134 * q, options).getId();
+                if (pass == 0)
+                    expected[k] = neighbours;
+                else
+                    Assert.assertArrayEquals(kernels[k].name(), expected[k], neighbours);
+            }
+        }
+    }
+
+    @Test
+    public void testOptions() {
+        RecommendationOptions cosine = RecommendationOptions.DEFAULT.withSimilarity(SimilarityKernels.COSINE);
+        Assert.assertNotEquals(RecommendationOptions.DEFAULT, cosine);
+        Assert.assertEquals(cosine, RecommendationOptions.DEFAULT.withSimilarity(SimilarityKernels.byName("COSINE")));
+        Assert.assertEquals(RecommendationOptions.DEFAULT, cosine.withSimilarity(SimilarityKernels.PEARSON));
+        Assert.assertTrue(cosine.toString().contains("cosine"));
+        try {
+            cosine.withTimeWindow(0, 1000);
+            Assert.fail("time window only applies to Pearson");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            cosine.withDecay(86400, 0);
+            Assert.fail("decay only applies to Pearson");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            RecommendationOptions.DEFAULT.withTimeWindow(0, 1000).withSimilarity(SimilarityKernels.MSD);
+            Assert.fail("time window only applies to Pearson");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SimilarityKernels.byName("euclidean");
+            Assert.fail("no such kernel");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.RatingNode;
+import recommender.RatingsList;
+import recommender.User;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+/** Test file for the spliterators and streams over ratings and users. */
+public class StreamSupportTest {
+    @Test
+    public void testRatingsSpliterator() {
+        RatingsList list = new RatingsList();
+        for (int movieId = 1; movieId <= 9; movieId++)
+            list.insertByRating(movieId, movieId % 5 + 1);
+        Spliterator<RatingNode> spliterator = list.spliterator();
+        Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+        Assert.assertEquals(9, spliterator.getExactSizeIfKnown());
+        Spliterator<RatingNode> prefix = spliterator.trySplit();
+        Assert.assertEquals(4, prefix.estimateSize());
+        Assert.assertEquals(5, spliterator.estimateSize());
+
+        List<Integer> sequential = list.stream().map(RatingNode::getMovieId).collect(Collectors.toList());
+        List<Integer> parallel = list.parallelStream().map(RatingNode::getMovieId).collect(Collectors.toList());
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertEquals(List.of(9, 4, 8, 3, 7, 2, 6, 1, 5), sequential);
+        Assert.assertEquals(list.getNBestRankedMovies(3).getMovieIds().length, list.stream().limit(3).count());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorThrowsAtEnd() {
+        RatingsList list = new RatingsList();
+        list.insertByRating(1, 5);
+        Iterator<RatingNode> it = list.iterator();
+        it.next();
+        it.next();
+    }
+
+    @Test
+    public void testParallelUserStream() {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData("input" + File.separator + "movies.csv", "input" + File.separator + "ratings.csv");
+        Assert.assertEquals(671, recommender.userSpliterator().getExactSizeIfKnown());
+        long ratings = recommender.userStream(true).mapToLong(user -> user.getMovieIds().length).sum();
+        Assert.assertEquals(100004, ratings);
+        List<Integer> ids = recommender.userStream(true).map(User::getId).collect(Collectors.toList());
+        Assert.assertEquals(recommender.userStream(false).map(User::getId).collect(Collectors.toList()), ids);
+
+        // the most similar user, found by a parallel scan
+        User target = recommender.getUser(3);
+        int best = recommender.userStream(true)
+                .filter(user -> user != target)
+                .filter(user -> !Double.isNaN(target.computeSimilarity(user)))
+                .reduce((a, b) -> target.computeSimilarity(b) > target.computeSimilarity(a) ? b : a)
+                .get().getId();
+        Assert.assertEquals(recommender.findMostSimilarUser(3).getId(), best);
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.RatingsList;
+import recommender.RecommendationOptions;
+import recommender.User;
+
+/** Test file for time-windowed and time-decayed similarity. */
+public class TimeWindowTest {
+    public static final int[] MOVIES = {1, 2, 3, 4, 5, 6};
+    public static final double[] RATINGS1 = {5, 4, 1, 2, 5, 3};
+    public static final double[] RATINGS2 = {4, 5, 2, 1, 1, 5};
+    public static final long[] TIMES = {1000, 900, 2000, 3000, 5000, 4000};
+
+    @Test
+    public void testWindowUsesOnlyRatingsInRange() {
+        User user1 = createUser(1, RATINGS1);
+        User user2 = createUser(2, RATINGS2);
+        RecommendationOptions options = RecommendationOptions.DEFAULT.withTimeWindow(900, 3000);
+
+        // movies rated in [900, 3000]: 1, 2, 3, 4
+        RatingsList list1 = new RatingsList();
+        RatingsList list2 = new RatingsList();
+        for (int i = 0; i < 4; i++) {
+            list1.insertByRating(MOVIES[i], RATINGS1[i]);
+            list2.insertByRating(MOVIES[i], RATINGS2[i]);
+        }
+        Assert.assertEquals(list1.computeCorrelation(list2), user1.computeSimilarity(user2, options), 1e-12);
+        Assert.assertEquals(user1.computeSimilarity(user2), user1.computeSimilarity(user2, RecommendationOptions.DEFAULT), 0);
+    }
+
+    @Test
+    public void testDecayWithHugeHalfLifeIsPlainPearson() {
+        User user1 = createUser(1, RATINGS1);
+        User user2 = createUser(2, RATINGS2);
+        RecommendationOptions options = RecommendationOptions.DEFAULT.withDecay(1e15, 5000);
+        Assert.assertEquals(user1.computeSimilarity(user2), user1.computeSimilarity(user2, options), 1e-9);
+
+        // with a short half-life the result is different
+        RecommendationOptions shortDecay = RecommendationOptions.DEFAULT.withDecay(500, 5000);
+        Assert.assertNotEquals(user1.computeSimilarity(user2), user1.computeSimilarity(user2, shortDecay), 1e-6);
+    }
+
+    @Test
+    public void testFavoriteMoviesInWindow() {
+        User user1 = createUser(1, RATINGS1);
+        // 5-star ratings: movie 1 at 1000, movie 5 at 5000
+        Assert.assertArrayEquals(new int[] {5, 1}, user1.getFavoriteMovies(5, RecommendationOptions.DEFAULT.withTimeWindow(0, 6000)));
+        Assert.assertArrayEquals(new int[] {1}, user1.getFavoriteMovies(5, RecommendationOptions.DEFAULT.withTimeWindow(0, 4999)));
+        Assert.assertArrayEquals(new int[] {5}, user1.getFavoriteMovies(1, RecommendationOptions.DEFAULT.withTimeWindow(0, 6000)));
+    }
+
+    @Test
+    public void testMostSimilarUserInWindow() {
+        User[] users = new User[4];
+        users[1] = createUser(1, RATINGS1);
+        users[2] = createUser(2, RATINGS2);
+        users[3] = createUser(3, RATINGS1);
+        users[3].insert(7, 5, 100); // outside of the window
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.setUsers(users);
+        User similar = recommender.findMostSimilarUser(1, RecommendationOptions.DEFAULT.withTimeWindow(900, 3000));
+        Assert.assertEquals(3, similar.getId());
+    }
+
+    @Test
+    public void testRatingsSpanningMoreThanIntSeconds() {
+        long early = -5_000_000_000L;
+        long late = 5_000_000_000L;
+        User user1 = new User(1);
+        user1.insert(1, 5, 0);
+        user1.insert(2, 4, late); // widens the offsets
+        user1.insert(3, 1, early); // rebases the wide offsets
+        User user2 = new User(2);
+        user2.insert(1, 4, late);
+        user2.insert(2, 5, early);
+        user2.insert(3, 2, 0);
+        Assert.assertArrayEquals(new int[] {1}, user1.getFavoriteMovies(5, RecommendationOptions.DEFAULT.withTimeWindow(early, 1)));
+        RecommendationOptions all = RecommendationOptions.DEFAULT.withTimeWindow(early, late);
+        Assert.assertEquals(user1.computeSimilarity(user2), user1.computeSimilarity(user2, all), 1e-12);
+        // movies 1 and 3 for user1, 2 and 3 for user2
+        Assert.assertTrue(Double.isNaN(user1.computeSimilarity(user2, RecommendationOptions.DEFAULT.withTimeWindow(early, 0))));
+    }
+
+    private static User createUser(int userId, double[] ratings) {
+        User user = new User(userId);
+        for (int i = 0; i < MOVIES.length; i++)
+            user.insert(MOVIES[i], ratings[i], TIMES[i]);
+        return user;
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.Assert;
+import org.junit.Test;
+import recommender.MovieRecommender;
+import recommender.User;
+import recommender.UserExport;
+import recommender.UserExportFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+/** Test file for the parallel export of users' ratings. */
+public class UserExportTest {
+    public static final String MOVIES = "input" + File.separator + "movies.csv";
+    public static final String RATINGS = "input" + File.separator + "ratings.csv";
+
+    @Test
+    public void testTextIsByteIdenticalToPrintUsers() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        User[] users = new User[672];
+        for (int id = 1; id < users.length; id++)
+            users[id] = recommender.getUser(id);
+
+        File expected = tempFile();
+        try (PrintWriter pr = new PrintWriter(expected)) {
+            // the original printUsers loop
+            for (User user : users) {
+                if (user != null) {
+                    pr.print("(" + user.getId() + ") ");
+                    for (int i = 0; i < user.getMovieIds().length; i++)
+                        pr.print(user.getMovieIds()[i] + ":" + user.getRating(user.getMovieIds()[i]) + "; ");
+                    pr.println();
+                }
+            }
+        }
+        byte[] bytes = Files.readAllBytes(expected.toPath());
+
+        File printed = tempFile();
+        recommender.printUsers(printed.getPath());
+        Assert.assertArrayEquals(bytes, Files.readAllBytes(printed.toPath()));
+        for (int threads : new int[] {1, 3, 8}) {
+            File exported = tempFile();
+            UserExport.write(users, exported.getPath(), UserExportFormat.TEXT, threads);
+            Assert.assertArrayEquals(bytes, Files.readAllBytes(exported.toPath()));
+        }
+    }
+
+    @Test
+    public void testColumnarRoundTrip() throws IOException {
+        MovieRecommender recommender = new MovieRecommender();
+        recommender.loadData(MOVIES, RATINGS);
+        File file = tempFile();
+        recommender.exportUsers(file.getPath(), UserExportFormat.COLUMNAR);
+        User[] read = UserExport.readColumnar(file.getPath());
+        for (int id = 1; id <= 671; id++) {
+            User user = recommender.getUser(id);
+            Assert.assertArrayEquals(user.getMovieIds(), read[id].getMovieIds());
+            for (int movieId : user.getMovieIds())
+                Assert.assertEquals(user.getRating(movieId), read[id].getRating(movieId), 0);
+        }
+        Assert.assertTrue(file.length() < 6 * 100004); // 5 bytes per rating, plus 8 per user
+    }
+
+    @Test
+    public void testColumnarKeepsOtherRatings() throws IOException {
+        User[] users = new User[4];
+        users[1] = new User(1);
+        users[1].insert(10, 3.7);
+        users[1].insert(11, 4);
+        users[3] = new User(3);
+        users[3].insert(5, 2.5);
+        File file = tempFile();
+        UserExport.write(users, file.getPath(), UserExportFormat.COLUMNAR, 2);
+        User[] read = UserExport.readColumnar(file.getPath());
+        Assert.assertNull(read[2]);
+        Assert.assertArrayEquals(new int[] {11, 10}, read[1].getMovieIds());
+        Assert.assertEquals(3.7, read[1].getRating(10), 0);
+        Assert.assertEquals(2.5, read[3].getRating(5), 0);
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("users", ".out");
+        file.deleteOnExit();
+        return file;
+    }
+}